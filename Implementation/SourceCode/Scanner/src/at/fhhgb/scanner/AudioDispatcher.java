@@ -0,0 +1,209 @@
+package at.fhhgb.scanner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/// Plays sound cues one after another on a task lane, highest priority first.
+/**
+ * A cue that is requested while an identical cue is still pending is merged
+ * into the pending one instead of being played twice. Each cue has a deadline
+ * and is dropped if it could not start playing until then, so a slow link
+ * never plays countdown beeps after the scan has started. If more cues are
+ * pending than the capacity allows, the lowest priority cue is dropped.
+ * The output decides when a cue may play, e.g. only while no motor commands
+ * are in progress.
+ */
+public class AudioDispatcher {
+	
+	public enum Priority {
+		LOW, NORMAL, HIGH
+	}
+	
+	/// Plays a cue. Returns false if the cue could not be played before its deadline.
+	public interface Output {
+		public boolean play(int code, long deadline) throws InterruptedException;
+	}
+	
+	private final TaskLane lane;
+	private final Output output;
+	private final int capacity;
+	
+	//Guarded by this
+	private final List<Cue> pending = new ArrayList<>();
+	private boolean draining = false;
+	
+	private final LatencyRecorder delay = new LatencyRecorder();
+	private final AtomicLong played = new AtomicLong();
+	private final AtomicLong merged = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	
+	private final Runnable drain = new Runnable() {
+		public void run() {
+			drain();
+		}
+	};
+	
+	public AudioDispatcher(TaskLane lane, Output output, int capacity) {
+		this.lane = lane;
+		this.output = output;
+		this.capacity = Math.max(1, capacity);
+	}
+	
+	/// Requests the system sound with the given code, which has to start playing within maxDelay ms.
+	public void play(int code, Priority priority, long maxDelay) {
+		long now = System.nanoTime();
+		long deadline = now + TimeUnit.MILLISECONDS.toNanos(maxDelay);
+		boolean startDrain = false;
+		synchronized (this) {
+			Cue cue = find(code);
+			if (cue != null) {
+				//Merge into the pending cue, it plays as soon as the first one would and lives as long as the last one
+				if (priority.compareTo(cue.priority) > 0) {
+					cue.priority = priority;
+				}
+				cue.deadline = Math.max(cue.deadline, deadline);
+				merged.incrementAndGet();
+			}
+			else {
+				if (pending.size() >= capacity) {
+					Cue lowest = lowest();
+					if (lowest.priority.compareTo(priority) > 0) {
+						dropped.incrementAndGet();
+						return;
+					}
+					pending.remove(lowest);
+					dropped.incrementAndGet();
+				}
+				pending.add(new Cue(code, priority, now, deadline));
+			}
+			if (!draining) {
+				draining = true;
+				startDrain = true;
+			}
+		}
+		if (startDrain && !lane.execute(drain)) {
+			synchronized (this) {
+				draining = false;
+			}
+			System.out.println("Audio lane full, sounds delayed.");
+		}
+	}
+	
+	/// Removes all pending cues and returns their number.
+	public synchronized int clear() {
+		int n = pending.size();
+		pending.clear();
+		return n;
+	}
+	
+	public synchronized int getPending() {
+		return pending.size();
+	}
+	
+	public long getPlayed() {
+		return played.get();
+	}
+	
+	/// Returns the number of requests merged into an identical pending cue.
+	public long getMerged() {
+		return merged.get();
+	}
+	
+	/// Returns the number of cues dropped because they were stale or the queue was full.
+	public long getDropped() {
+		return dropped.get();
+	}
+	
+	/// Returns the time in ns from requesting a cue until it started playing.
+	public LatencyRecorder getDelay() {
+		return delay;
+	}
+	
+	@Override
+	public String toString() {
+		return "Audio: played " + getPlayed() + ", merged " + getMerged() + ", dropped " + getDropped() + ", delay " + delay;
+	}
+	
+	private void drain() {
+		while (true) {
+			Cue cue;
+			synchronized (this) {
+				cue = next();
+				if (cue == null) {
+					draining = false;
+					return;
+				}
+				pending.remove(cue);
+			}
+			
+			long start = System.nanoTime();
+			if (start - cue.deadline > 0) {
+				dropped.incrementAndGet();
+				continue;
+			}
+			try {
+				if (output.play(cue.code, cue.deadline)) {
+					delay.record(start - cue.requested);
+					played.incrementAndGet();
+				}
+				else {
+					dropped.incrementAndGet();
+				}
+			} catch (InterruptedException e) {
+				synchronized (this) {
+					draining = false;
+				}
+				return;
+			} catch (RuntimeException e) {
+				System.out.println("Failed to play sound: " + e.getMessage());
+			}
+		}
+	}
+	
+	//Highest priority first, the oldest request within a priority
+	private Cue next() {
+		Cue next = null;
+		for (Cue cue : pending) {
+			if (next == null || cue.priority.compareTo(next.priority) > 0) {
+				next = cue;
+			}
+		}
+		return next;
+	}
+	
+	private Cue lowest() {
+		Cue lowest = null;
+		for (Cue cue : pending) {
+			if (lowest == null || cue.priority.compareTo(lowest.priority) < 0) {
+				lowest = cue;
+			}
+		}
+		return lowest;
+	}
+	
+	private Cue find(int code) {
+		for (Cue cue : pending) {
+			if (cue.code == code) {
+				return cue;
+			}
+		}
+		return null;
+	}
+	
+	private static class Cue {
+		
+		final int code;
+		final long requested;
+		Priority priority;
+		long deadline;
+		
+		Cue(int code, Priority priority, long requested, long deadline) {
+			this.code = code;
+			this.priority = priority;
+			this.requested = requested;
+			this.deadline = deadline;
+		}
+	}
+}
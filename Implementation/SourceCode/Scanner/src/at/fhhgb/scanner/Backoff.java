@@ -0,0 +1,43 @@
+package at.fhhgb.scanner;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/// Exponential backoff with jitter for retrying a failed operation.
+/**
+ * The delay doubles with every attempt up to the maximum. Each delay is drawn
+ * randomly from the upper half of the current delay, so clients retrying
+ * at the same time spread out.
+ */
+public class Backoff {
+	
+	private final long initialDelay;
+	private final long maxDelay;
+	
+	//Guarded by this
+	private int attempts = 0;
+	
+	/// Creates a backoff with the given initial and maximum delay in ms.
+	public Backoff(long initialDelay, long maxDelay) {
+		this.initialDelay = Math.max(1, initialDelay);
+		this.maxDelay = Math.max(this.initialDelay, maxDelay);
+	}
+	
+	/// Returns the delay in ms before the next attempt and counts the attempt.
+	public synchronized long nextDelay() {
+		long delay = initialDelay << Math.min(attempts, 30);
+		if (delay <= 0 || delay > maxDelay) {
+			delay = maxDelay;
+		}
+		attempts++;
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+	
+	public synchronized int getAttempts() {
+		return attempts;
+	}
+	
+	/// Starts again with the initial delay, e.g. after a successful attempt.
+	public synchronized void reset() {
+		attempts = 0;
+	}
+}
@@ -0,0 +1,134 @@
+package at.fhhgb.scanner;
+
+/// Keeps recent battery voltage readings with their time in a ring buffer and decides when the voltage should be read next.
+/**
+ * The voltage is read rarely while idle, more often while it is dropping and
+ * not at all during motor critical phases such as a scan. Failed reads back
+ * off exponentially. Consumers read the cached values, only the poller talks
+ * to the brick.
+ */
+public class BatteryTelemetry {
+	
+	/// Default number of readings kept.
+	public static final int DEFAULT_CAPACITY = 256;
+	
+	/// Interval in ms between readings while the voltage is stable.
+	public static final long IDLE_INTERVAL = 15000;
+	
+	/// Interval in ms between readings while the voltage is dropping.
+	public static final long DROPPING_INTERVAL = 3000;
+	
+	/// Interval in ms after which a reading postponed by a motor critical phase is tried again.
+	public static final long DEFERRED_INTERVAL = 1000;
+	
+	/// Maximum interval in ms between attempts after failed readings.
+	public static final long MAX_BACKOFF = 60000;
+	
+	/// Voltage drop in V per minute from which the voltage counts as dropping.
+	public static final float DROPPING_RATE = 0.05f;
+	
+	/// Readings of the last TREND_WINDOW ms are used for the trend.
+	private static final long TREND_WINDOW = 120000;
+	
+	private long times[] = null;
+	private float voltages[] = null;
+	private int next = 0;
+	private int size = 0;
+	private int failures = 0;
+	
+	public BatteryTelemetry() {
+		this(DEFAULT_CAPACITY);
+	}
+	
+	public BatteryTelemetry(int capacity) {
+		times = new long[Math.max(2, capacity)];
+		voltages = new float[times.length];
+	}
+	
+	/// Records a reading taken at the given time in ms.
+	public synchronized void record(long time, float voltage) {
+		times[next] = time;
+		voltages[next] = voltage;
+		next = (next + 1) % times.length;
+		size = Math.min(size + 1, times.length);
+		failures = 0;
+	}
+	
+	public synchronized void recordFailure() {
+		failures++;
+	}
+	
+	public synchronized int getFailures() {
+		return failures;
+	}
+	
+	public synchronized int size() {
+		return size;
+	}
+	
+	/// Returns the latest voltage or NaN if nothing was read yet.
+	public synchronized float getVoltage() {
+		return size > 0 ? voltages[index(size - 1)] : Float.NaN;
+	}
+	
+	/// Returns the time in ms of the latest reading or -1.
+	public synchronized long getTime() {
+		return size > 0 ? times[index(size - 1)] : -1;
+	}
+	
+	/// Returns the change of the voltage in V per minute over the recent readings (least squares), 0 with fewer than two readings.
+	public synchronized float getTrend() {
+		if (size < 2) {
+			return 0;
+		}
+		long latest = times[index(size - 1)];
+		int n = 0;
+		double sumT = 0, sumV = 0, sumTT = 0, sumTV = 0;
+		for (int i=size-1; i>=0; i--) {
+			int k = index(i);
+			if (latest - times[k] > TREND_WINDOW) {
+				break;
+			}
+			double t = (times[k] - latest) / 60000.0;
+			sumT += t;
+			sumV += voltages[k];
+			sumTT += t * t;
+			sumTV += t * voltages[k];
+			n++;
+		}
+		double denominator = n * sumTT - sumT * sumT;
+		if (n < 2 || denominator == 0) {
+			return 0;
+		}
+		return (float)((n * sumTV - sumT * sumV) / denominator);
+	}
+	
+	/// Copies the readings from oldest to newest into the arrays and returns their number.
+	public synchronized int getReadings(long times[], float voltages[]) {
+		int n = Math.min(size, Math.min(times.length, voltages.length));
+		for (int i=0; i<n; i++) {
+			int k = index(size - n + i);
+			times[i] = this.times[k];
+			voltages[i] = this.voltages[k];
+		}
+		return n;
+	}
+	
+	/// Returns the delay in ms until the next reading. During a motor critical phase the reading is only postponed.
+	public synchronized long getNextDelay(boolean motorsCritical) {
+		if (motorsCritical) {
+			return DEFERRED_INTERVAL;
+		}
+		if (failures > 0) {
+			return Math.min(MAX_BACKOFF, DROPPING_INTERVAL << Math.min(failures, 10));
+		}
+		if (getTrend() <= -DROPPING_RATE) {
+			return DROPPING_INTERVAL;
+		}
+		return IDLE_INTERVAL;
+	}
+	
+	private int index(int i) {
+		return (next - size + i + times.length) % times.length;
+	}
+}
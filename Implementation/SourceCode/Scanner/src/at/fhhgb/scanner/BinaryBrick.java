@@ -0,0 +1,564 @@
+package at.fhhgb.scanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lejos.hardware.Audio;
+import lejos.hardware.DeviceException;
+import lejos.hardware.Power;
+import lejos.hardware.port.PortException;
+import lejos.remote.ev3.RMIRegulatedMotor;
+import lejos.robotics.RegulatedMotorListener;
+
+/// A brick connected via a compact binary protocol on a single TCP connection instead of leJOS RMI.
+/**
+ * Every call is a frame of length, correlation ID, operation, handle and int
+ * arguments; the reply carries the same ID, a status and an int value. Calls
+ * of several threads are sent without waiting for each other and matched to
+ * their replies by ID, so e.g. the commands of a MotorGroup travel together.
+ * Audio and power need no lookup, their operations address handle 0. Samples
+ * and file names travel as bytes packed into big-endian ints after their
+ * length, a file name is a path on the brick. An instrument is just the
+ * ints following the frequency and length of a note. A frame is at most
+ * MAX_FRAME_LENGTH bytes, which limits samples to about 64 KB. Blocking
+ * moves are sent as immediate ones and their end is polled, so every call
+ * ends within the timeout. On the
+ * brick BrickCommandServer of ScannerEV3 executes the calls, on the PC
+ * BinaryBrickServer serves any Brick, e.g. a SimulatedBrick.
+ * <pre>
+ * request: int length, int id, byte operation, byte handle, int arguments[]
+ * reply:   int length, int id, byte status, int value
+ *          or if the status is not OK: int length, int id, byte status, short length, UTF-8 message
+ * </pre>
+ */
+public class BinaryBrick implements Brick {
+	
+	public static final int DEFAULT_PORT = 5579;
+	
+	/// Factory connecting to the command server of a brick at the given IP address.
+	public static final BrickFactory FACTORY = new BrickFactory() {
+		@Override
+		public Brick connect(String ip) throws RemoteException {
+			return new BinaryBrick(ip, DEFAULT_PORT);
+		}
+	};
+	
+	//Operations, the handle is 0 for brick, audio and power operations
+	static final byte PING = 1;
+	static final byte CREATE_MOTOR = 2;
+	static final byte FORWARD = 10;
+	static final byte BACKWARD = 11;
+	static final byte STOP = 12;
+	static final byte FLT = 13;
+	static final byte SET_SPEED = 14;
+	static final byte GET_SPEED = 15;
+	static final byte SET_ACCELERATION = 16;
+	static final byte RESET_TACHO_COUNT = 17;
+	static final byte GET_TACHO_COUNT = 18;
+	static final byte IS_MOVING = 19;
+	static final byte ROTATE = 20;
+	static final byte ROTATE_TO = 21;
+	static final byte GET_LIMIT_ANGLE = 22;
+	static final byte WAIT_COMPLETE = 23;
+	static final byte IS_STALLED = 24;
+	static final byte SET_STALL_THRESHOLD = 25;
+	static final byte GET_MAX_SPEED = 26;
+	static final byte CLOSE = 27;
+	static final byte SYSTEM_SOUND = 40;
+	static final byte PLAY_TONE = 41;
+	static final byte GET_VOLUME = 42;
+	static final byte SET_VOLUME = 43;
+	static final byte PLAY_SAMPLE_FILE = 44;
+	static final byte PLAY_SAMPLE = 45;
+	static final byte PLAY_NOTE = 46;
+	static final byte GET_VOLTAGE_MILLIVOLT = 50;
+	static final byte GET_BATTERY_CURRENT = 51;
+	static final byte GET_MOTOR_CURRENT = 52;
+	
+	//Reply status
+	static final byte OK = 0;
+	static final byte ERROR_REMOTE = 1;
+	static final byte ERROR_DEVICE = 2;
+	static final byte ERROR_PORT = 3;
+	static final byte ERROR_UNSUPPORTED = 4;
+	
+	/// Largest length of a request frame, a sample of 64 KB with frequency and volume.
+	static final int MAX_FRAME_LENGTH = 6 + 4 * 3 + 65536;
+	
+	private static final int CONNECT_TIMEOUT = 2000;
+	private static final int CALL_TIMEOUT = 5000;
+	//Blocking moves poll the motor instead, so no call outlasts the timeout and the lane of the motor stays free for a stop
+	private static final int MOVE_POLL_INTERVAL = 20;
+	
+	private final Socket socket;
+	private final DataOutputStream output;
+	private final Map<Integer, Call> pending = new ConcurrentHashMap<>();
+	private final AtomicInteger nextId = new AtomicInteger();
+	private final BinaryAudio audio = new BinaryAudio();
+	private final BinaryPower power = new BinaryPower();
+	private volatile boolean closed = false;
+	
+	private LatencyRecorder roundTrip = new LatencyRecorder();
+	private volatile int maxInFlight = 0;
+	
+	public BinaryBrick(String host, int port) throws RemoteException {
+		socket = new Socket();
+		try {
+			socket.setTcpNoDelay(true);
+			socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+			output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			final DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			Thread readerThread = new Thread("Brick reader " + host + ":" + port) {
+				public void run() {
+					read(input);
+				}
+			};
+			readerThread.setDaemon(true);
+			readerThread.start();
+		} catch (IOException e) {
+			close();
+			throw new RemoteException("Failed to connect to " + host + ":" + port, e);
+		}
+	}
+	
+	@Override
+	public RMIRegulatedMotor createRegulatedMotor(String port, char type) {
+		try {
+			return new BinaryMotor(call(CREATE_MOTOR, 0, port.charAt(0), type));
+		} catch (RemoteException e) {
+			throw new PortException(e);
+		}
+	}
+	
+	@Override
+	public Audio getAudio() {
+		return audio;
+	}
+	
+	@Override
+	public Power getPower() {
+		return power;
+	}
+	
+	@Override
+	public void ping() throws RemoteException {
+		call(PING, 0);
+	}
+	
+	/// Closes the connection, calls in progress and later calls fail.
+	@Override
+	public void close() {
+		closed = true;
+		try {
+			socket.close();
+		} catch (IOException e) {
+		}
+		failPending();
+	}
+	
+	public boolean isClosed() {
+		return closed;
+	}
+	
+	/// Returns the round trip times of the calls in nanoseconds.
+	public LatencyRecorder getRoundTrip() {
+		return roundTrip;
+	}
+	
+	/// Returns the maximum number of calls that were in progress at the same time.
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+	
+	//Sends the call and waits for its reply, returns the value of the reply
+	int call(byte operation, int handle, int... arguments) throws RemoteException {
+		if (closed) {
+			throw new RemoteException("Connection closed");
+		}
+		if (6 + 4 * arguments.length > MAX_FRAME_LENGTH) {
+			throw new RemoteException("Call too long");
+		}
+		int id = nextId.incrementAndGet();
+		Call call = new Call();
+		pending.put(id, call);
+		if (closed) {
+			//Closed concurrently, the call was not failed with the others
+			pending.remove(id);
+			throw new RemoteException("Connection closed");
+		}
+		int inFlight = pending.size();
+		if (inFlight > maxInFlight) {
+			maxInFlight = inFlight;
+		}
+		long start = System.nanoTime();
+		try {
+			synchronized (output) {
+				output.writeInt(6 + 4 * arguments.length);
+				output.writeInt(id);
+				output.writeByte(operation);
+				output.writeByte(handle);
+				for (int argument : arguments) {
+					output.writeInt(argument);
+				}
+				output.flush();
+			}
+		} catch (IOException e) {
+			pending.remove(id);
+			close();
+			throw new RemoteException("Failed to send", e);
+		}
+		
+		try {
+			int value = call.await(CALL_TIMEOUT);
+			roundTrip.record(System.nanoTime() - start);
+			return value;
+		} finally {
+			pending.remove(id);
+		}
+	}
+	
+	//Runs in the reader thread until the connection is closed
+	private void read(DataInputStream input) {
+		try {
+			while (true) {
+				int length = input.readInt();
+				int id = input.readInt();
+				byte status = input.readByte();
+				int value = 0;
+				String message = null;
+				if (status == OK) {
+					value = input.readInt();
+				}
+				else {
+					byte text[] = new byte[input.readUnsignedShort()];
+					input.readFully(text);
+					message = new String(text, StandardCharsets.UTF_8);
+				}
+				if (length < 5) {
+					throw new IOException("Invalid frame");
+				}
+				Call call = pending.get(id);
+				if (call != null) {
+					call.complete(status, value, message);
+				}
+			}
+		} catch (IOException e) {
+		}
+		close();
+	}
+	
+	private void failPending() {
+		List<Call> calls = new ArrayList<>(pending.values());
+		for (Call call : calls) {
+			call.complete(ERROR_REMOTE, 0, "Connection closed");
+		}
+	}
+	
+	private static class Call {
+		
+		private boolean done = false;
+		private byte status = 0;
+		private int value = 0;
+		private String message = null;
+		
+		synchronized void complete(byte status, int value, String message) {
+			if (!done) {
+				this.status = status;
+				this.value = value;
+				this.message = message;
+				done = true;
+				notifyAll();
+			}
+		}
+		
+		synchronized int await(long timeout) throws RemoteException {
+			long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+			boolean interrupted = false;
+			while (!done) {
+				long remaining = end - System.nanoTime();
+				if (remaining <= 0) {
+					throw new RemoteException("Call timed out");
+				}
+				try {
+					TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				} catch (InterruptedException e) {
+					//The reply is on its way, waiting for it keeps the connection in sync
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			switch (status) {
+			case OK:
+				return value;
+			case ERROR_DEVICE:
+				throw new DeviceException(message);
+			case ERROR_PORT:
+				throw new PortException(message);
+			case ERROR_UNSUPPORTED:
+				throw new UnsupportedOperationException(message);
+			default:
+				throw new RemoteException(message);
+			}
+		}
+	}
+	
+	private class BinaryMotor implements RMIRegulatedMotor {
+		
+		private final int handle;
+		
+		BinaryMotor(int handle) {
+			this.handle = handle;
+		}
+		
+		@Override
+		public void addListener(RegulatedMotorListener listener) throws RemoteException {
+			throw new RemoteException("Listeners are not supported");
+		}
+		
+		@Override
+		public RegulatedMotorListener removeListener() throws RemoteException {
+			return null;
+		}
+		
+		@Override
+		public void stop(boolean immediateReturn) throws RemoteException {
+			call(STOP, handle, immediateReturn ? 1 : 0);
+		}
+		
+		@Override
+		public void flt(boolean immediateReturn) throws RemoteException {
+			call(FLT, handle, immediateReturn ? 1 : 0);
+		}
+		
+		@Override
+		public void waitComplete() throws RemoteException {
+			while (isMoving()) {
+				try {
+					Thread.sleep(MOVE_POLL_INTERVAL);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+		
+		@Override
+		public void rotate(int angle, boolean immediateReturn) throws RemoteException {
+			call(ROTATE, handle, angle, 1);
+			if (!immediateReturn) {
+				waitComplete();
+			}
+		}
+		
+		@Override
+		public void rotate(int angle) throws RemoteException {
+			rotate(angle, false);
+		}
+		
+		@Override
+		public void rotateTo(int limitAngle) throws RemoteException {
+			rotateTo(limitAngle, false);
+		}
+		
+		@Override
+		public void rotateTo(int limitAngle, boolean immediateReturn) throws RemoteException {
+			call(ROTATE_TO, handle, limitAngle, 1);
+			if (!immediateReturn) {
+				waitComplete();
+			}
+		}
+		
+		@Override
+		public int getLimitAngle() throws RemoteException {
+			return call(GET_LIMIT_ANGLE, handle);
+		}
+		
+		@Override
+		public void setSpeed(int speed) throws RemoteException {
+			call(SET_SPEED, handle, speed);
+		}
+		
+		@Override
+		public int getSpeed() throws RemoteException {
+			return call(GET_SPEED, handle);
+		}
+		
+		@Override
+		public float getMaxSpeed() throws RemoteException {
+			return Float.intBitsToFloat(call(GET_MAX_SPEED, handle));
+		}
+		
+		@Override
+		public boolean isStalled() throws RemoteException {
+			return call(IS_STALLED, handle) != 0;
+		}
+		
+		@Override
+		public void setStallThreshold(int error, int time) throws RemoteException {
+			call(SET_STALL_THRESHOLD, handle, error, time);
+		}
+		
+		@Override
+		public void setAcceleration(int acceleration) throws RemoteException {
+			call(SET_ACCELERATION, handle, acceleration);
+		}
+		
+		@Override
+		public void close() throws RemoteException {
+			call(CLOSE, handle);
+		}
+		
+		@Override
+		public void forward() throws RemoteException {
+			call(FORWARD, handle);
+		}
+		
+		@Override
+		public void backward() throws RemoteException {
+			call(BACKWARD, handle);
+		}
+		
+		@Override
+		public void resetTachoCount() throws RemoteException {
+			call(RESET_TACHO_COUNT, handle);
+		}
+		
+		@Override
+		public int getTachoCount() throws RemoteException {
+			return call(GET_TACHO_COUNT, handle);
+		}
+		
+		@Override
+		public boolean isMoving() throws RemoteException {
+			return call(IS_MOVING, handle) != 0;
+		}
+	}
+	
+	//Like the leJOS remote audio, failed calls throw PortException
+	private class BinaryAudio implements Audio {
+		
+		@Override
+		public void systemSound(int code) {
+			callUnchecked(SYSTEM_SOUND, code);
+		}
+		
+		@Override
+		public void playTone(int frequency, int duration, int volume) {
+			callUnchecked(PLAY_TONE, frequency, duration, volume);
+		}
+		
+		@Override
+		public void playTone(int frequency, int duration) {
+			playTone(frequency, duration, -1);
+		}
+		
+		@Override
+		public int playSample(File file, int volume) {
+			byte path[] = file.getPath().getBytes(StandardCharsets.UTF_8);
+			return callUnchecked(PLAY_SAMPLE_FILE, pack(path, 0, path.length, volume));
+		}
+		
+		@Override
+		public int playSample(File file) {
+			return playSample(file, -1);
+		}
+		
+		@Override
+		public int playSample(byte[] data, int offset, int length, int frequency, int volume) {
+			return callUnchecked(PLAY_SAMPLE, pack(data, offset, length, frequency, volume));
+		}
+		
+		@Override
+		public void playNote(int[] instrument, int frequency, int length) {
+			int arguments[] = new int[2 + instrument.length];
+			arguments[0] = frequency;
+			arguments[1] = length;
+			System.arraycopy(instrument, 0, arguments, 2, instrument.length);
+			callUnchecked(PLAY_NOTE, arguments);
+		}
+		
+		@Override
+		public void setVolume(int volume) {
+			callUnchecked(SET_VOLUME, volume);
+		}
+		
+		@Override
+		public int getVolume() {
+			return callUnchecked(GET_VOLUME);
+		}
+		
+		@Override
+		public void loadSettings() {
+		}
+	}
+	
+	private class BinaryPower implements Power {
+		
+		@Override
+		public int getVoltageMilliVolt() {
+			return callUnchecked(GET_VOLTAGE_MILLIVOLT);
+		}
+		
+		@Override
+		public float getVoltage() {
+			return getVoltageMilliVolt() / 1000f;
+		}
+		
+		@Override
+		public float getBatteryCurrent() {
+			return Float.intBitsToFloat(callUnchecked(GET_BATTERY_CURRENT));
+		}
+		
+		@Override
+		public float getMotorCurrent() {
+			return Float.intBitsToFloat(callUnchecked(GET_MOTOR_CURRENT));
+		}
+	}
+	
+	/// Returns the leading arguments followed by the length and the bytes packed into big-endian ints, the last int padded with zeros.
+	static int[] pack(byte data[], int offset, int length, int... leading) {
+		int arguments[] = new int[leading.length + 1 + (length + 3) / 4];
+		System.arraycopy(leading, 0, arguments, 0, leading.length);
+		arguments[leading.length] = length;
+		for (int i=0; i<length; i++) {
+			arguments[leading.length + 1 + i / 4] |= (data[offset + i] & 0xff) << (24 - 8 * (i % 4));
+		}
+		return arguments;
+	}
+	
+	/// Returns the bytes packed by pack(), from is the index of their length in the arguments.
+	static byte[] unpack(int arguments[], int from) {
+		int length = arguments[from];
+		if (length < 0 || (length + 3) / 4 > arguments.length - from - 1) {
+			throw new IllegalArgumentException("Invalid length " + length);
+		}
+		byte data[] = new byte[length];
+		for (int i=0; i<length; i++) {
+			data[i] = (byte)(arguments[from + 1 + i / 4] >>> (24 - 8 * (i % 4)));
+		}
+		return data;
+	}
+	
+	private int callUnchecked(byte operation, int... arguments) {
+		try {
+			return call(operation, 0, arguments);
+		} catch (RemoteException e) {
+			throw new PortException(e);
+		}
+	}
+}
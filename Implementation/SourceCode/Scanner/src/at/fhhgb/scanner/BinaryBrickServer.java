@@ -0,0 +1,369 @@
+package at.fhhgb.scanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import lejos.hardware.Audio;
+import lejos.hardware.DeviceException;
+import lejos.hardware.Power;
+import lejos.hardware.port.PortException;
+import lejos.remote.ev3.RMIRegulatedMotor;
+
+/// Serves the binary protocol of BinaryBrick for any Brick on the loopback interface, e.g. to run the controller or a benchmark against a SimulatedBrick.
+/**
+ * Calls of the same motor are executed in order, calls of different motors
+ * at the same time, like BrickCommandServer does on the brick. Pings, motor
+ * creation, audio and power calls have a lane each. Motors created
+ * by a connection are closed when the connection ends, so their ports are
+ * free for the next connection.
+ */
+public class BinaryBrickServer {
+	
+	//Ping, motor creation, audio and power each have a lane like on the brick, motors share the rest by handle
+	private static final int LANE_PING = 0;
+	private static final int LANE_CREATE = 1;
+	private static final int LANE_AUDIO = 2;
+	private static final int LANE_POWER = 3;
+	private static final int MOTOR_LANES = 4;
+	private static final int LANES = 4 + MOTOR_LANES;
+	
+	private final Brick brick;
+	private ServerSocket serverSocket = null;
+	private AtomicLong calls = new AtomicLong();
+	
+	public BinaryBrickServer(Brick brick) {
+		this.brick = brick;
+	}
+	
+	/// Starts listening on the given port of the loopback interface, 0 selects a free port.
+	public void start(int port) throws IOException {
+		serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		Thread acceptThread = new Thread("Brick server") {
+			public void run() {
+				while (!serverSocket.isClosed()) {
+					try {
+						final Socket socket = serverSocket.accept();
+						Thread connectionThread = new Thread("Brick server connection") {
+							public void run() {
+								new Connection(socket).serve();
+							}
+						};
+						connectionThread.setDaemon(true);
+						connectionThread.start();
+					} catch (IOException e) {
+					}
+				}
+			}
+		};
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+	
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+	
+	public void close() {
+		try {
+			if (serverSocket != null) {
+				serverSocket.close();
+			}
+		} catch (IOException e) {
+		}
+	}
+	
+	/// Returns the number of calls received.
+	public long getCalls() {
+		return calls.get();
+	}
+	
+	private static int lane(byte operation, int handle) {
+		if (handle != 0) {
+			return LANES - MOTOR_LANES + (handle - 1) % MOTOR_LANES;
+		}
+		if (operation == BinaryBrick.CREATE_MOTOR) {
+			return LANE_CREATE;
+		}
+		if (operation >= BinaryBrick.SYSTEM_SOUND && operation < BinaryBrick.GET_VOLTAGE_MILLIVOLT) {
+			return LANE_AUDIO;
+		}
+		if (operation >= BinaryBrick.GET_VOLTAGE_MILLIVOLT) {
+			return LANE_POWER;
+		}
+		return LANE_PING;
+	}
+	
+	private class Connection {
+		
+		private final Socket socket;
+		private DataOutputStream output = null;
+		private final ExecutorService lanes[] = new ExecutorService[LANES];
+		
+		//Guarded by motors
+		private final Map<Integer, RMIRegulatedMotor> motors = new HashMap<>();
+		private int nextHandle = 1;
+		
+		//Looked up once per connection, like the client which needs no lookup at all
+		private volatile Audio audio = null;
+		private volatile Power power = null;
+		
+		Connection(Socket socket) {
+			this.socket = socket;
+		}
+		
+		void serve() {
+			for (int i=0; i<lanes.length; i++) {
+				lanes[i] = Executors.newSingleThreadExecutor();
+			}
+			try {
+				socket.setTcpNoDelay(true);
+				DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				while (true) {
+					int length = input.readInt();
+					if (length < 6 || (length - 6) % 4 != 0) {
+						throw new IOException("Invalid frame");
+					}
+					final int id = input.readInt();
+					final byte operation = input.readByte();
+					final int handle = input.readByte() & 0xff;
+					if (length > BinaryBrick.MAX_FRAME_LENGTH) {
+						//Rejected before allocating, the rest of the frame cannot be trusted, so the connection ends
+						writeReply(id, BinaryBrick.ERROR_UNSUPPORTED, 0, "Frame too long");
+						throw new IOException("Frame too long");
+					}
+					final int arguments[] = new int[(length - 6) / 4];
+					for (int i=0; i<arguments.length; i++) {
+						arguments[i] = input.readInt();
+					}
+					calls.incrementAndGet();
+					lanes[lane(operation, handle)].execute(new Runnable() {
+						public void run() {
+							reply(id, operation, handle, arguments);
+						}
+					});
+				}
+			} catch (IOException e) {
+			} finally {
+				for (ExecutorService lane : lanes) {
+					lane.shutdown();
+				}
+				try {
+					socket.close();
+				} catch (IOException e) {
+				}
+				closeMotors();
+			}
+		}
+		
+		private void reply(int id, byte operation, int handle, int arguments[]) {
+			byte status = BinaryBrick.OK;
+			int value = 0;
+			String message = null;
+			try {
+				value = execute(operation, handle, arguments);
+			} catch (DeviceException e) {
+				status = BinaryBrick.ERROR_DEVICE;
+				message = String.valueOf(e.getMessage());
+			} catch (PortException e) {
+				status = BinaryBrick.ERROR_PORT;
+				message = String.valueOf(e.getMessage());
+			} catch (UnsupportedOperationException e) {
+				status = BinaryBrick.ERROR_UNSUPPORTED;
+				message = String.valueOf(e.getMessage());
+			} catch (RemoteException | RuntimeException e) {
+				status = BinaryBrick.ERROR_REMOTE;
+				message = String.valueOf(e.getMessage());
+			}
+			
+			writeReply(id, status, value, message);
+		}
+		
+		private void writeReply(int id, byte status, int value, String message) {
+			synchronized (output) {
+				try {
+					if (status == BinaryBrick.OK) {
+						output.writeInt(9);
+						output.writeInt(id);
+						output.writeByte(status);
+						output.writeInt(value);
+					}
+					else {
+						byte text[] = message.getBytes(StandardCharsets.UTF_8);
+						int length = Math.min(text.length, Short.MAX_VALUE);
+						output.writeInt(7 + length);
+						output.writeInt(id);
+						output.writeByte(status);
+						output.writeShort(length);
+						output.write(text, 0, length);
+					}
+					output.flush();
+				} catch (IOException e) {
+					try {
+						socket.close();
+					} catch (IOException e2) {
+					}
+				}
+			}
+		}
+		
+		private int execute(byte operation, int handle, int arguments[]) throws RemoteException {
+			switch (operation) {
+			case BinaryBrick.PING:
+				brick.ping();
+				return 0;
+			case BinaryBrick.CREATE_MOTOR:
+				RMIRegulatedMotor created = brick.createRegulatedMotor(String.valueOf((char)arguments[0]), (char)arguments[1]);
+				synchronized (motors) {
+					if (nextHandle > 255) {
+						created.close();
+						throw new UnsupportedOperationException("Too many motors");
+					}
+					motors.put(nextHandle, created);
+					return nextHandle++;
+				}
+			case BinaryBrick.SYSTEM_SOUND:
+				getAudio().systemSound(arguments[0]);
+				return 0;
+			case BinaryBrick.PLAY_TONE:
+				if (arguments[2] < 0) {
+					getAudio().playTone(arguments[0], arguments[1]);
+				}
+				else {
+					getAudio().playTone(arguments[0], arguments[1], arguments[2]);
+				}
+				return 0;
+			case BinaryBrick.GET_VOLUME:
+				return getAudio().getVolume();
+			case BinaryBrick.SET_VOLUME:
+				getAudio().setVolume(arguments[0]);
+				return 0;
+			case BinaryBrick.PLAY_SAMPLE_FILE:
+				File file = new File(new String(BinaryBrick.unpack(arguments, 1), StandardCharsets.UTF_8));
+				if (arguments[0] < 0) {
+					return getAudio().playSample(file);
+				}
+				return getAudio().playSample(file, arguments[0]);
+			case BinaryBrick.PLAY_SAMPLE:
+				byte data[] = BinaryBrick.unpack(arguments, 2);
+				return getAudio().playSample(data, 0, data.length, arguments[0], arguments[1]);
+			case BinaryBrick.PLAY_NOTE:
+				int instrument[] = new int[arguments.length - 2];
+				System.arraycopy(arguments, 2, instrument, 0, instrument.length);
+				getAudio().playNote(instrument, arguments[0], arguments[1]);
+				return 0;
+			case BinaryBrick.GET_VOLTAGE_MILLIVOLT:
+				return getPower().getVoltageMilliVolt();
+			case BinaryBrick.GET_BATTERY_CURRENT:
+				return Float.floatToIntBits(getPower().getBatteryCurrent());
+			case BinaryBrick.GET_MOTOR_CURRENT:
+				return Float.floatToIntBits(getPower().getMotorCurrent());
+			}
+			
+			RMIRegulatedMotor motor;
+			synchronized (motors) {
+				motor = motors.get(handle);
+			}
+			if (motor == null) {
+				throw new RemoteException("Invalid handle " + handle);
+			}
+			switch (operation) {
+			case BinaryBrick.FORWARD:
+				motor.forward();
+				return 0;
+			case BinaryBrick.BACKWARD:
+				motor.backward();
+				return 0;
+			case BinaryBrick.STOP:
+				motor.stop(arguments[0] != 0);
+				return 0;
+			case BinaryBrick.FLT:
+				motor.flt(arguments[0] != 0);
+				return 0;
+			case BinaryBrick.SET_SPEED:
+				motor.setSpeed(arguments[0]);
+				return 0;
+			case BinaryBrick.GET_SPEED:
+				return motor.getSpeed();
+			case BinaryBrick.SET_ACCELERATION:
+				motor.setAcceleration(arguments[0]);
+				return 0;
+			case BinaryBrick.RESET_TACHO_COUNT:
+				motor.resetTachoCount();
+				return 0;
+			case BinaryBrick.GET_TACHO_COUNT:
+				return motor.getTachoCount();
+			case BinaryBrick.IS_MOVING:
+				return motor.isMoving() ? 1 : 0;
+			case BinaryBrick.ROTATE:
+				motor.rotate(arguments[0], arguments[1] != 0);
+				return 0;
+			case BinaryBrick.ROTATE_TO:
+				motor.rotateTo(arguments[0], arguments[1] != 0);
+				return 0;
+			case BinaryBrick.GET_LIMIT_ANGLE:
+				return motor.getLimitAngle();
+			case BinaryBrick.WAIT_COMPLETE:
+				motor.waitComplete();
+				return 0;
+			case BinaryBrick.IS_STALLED:
+				return motor.isStalled() ? 1 : 0;
+			case BinaryBrick.SET_STALL_THRESHOLD:
+				motor.setStallThreshold(arguments[0], arguments[1]);
+				return 0;
+			case BinaryBrick.GET_MAX_SPEED:
+				return Float.floatToIntBits(motor.getMaxSpeed());
+			case BinaryBrick.CLOSE:
+				synchronized (motors) {
+					motors.remove(handle);
+				}
+				motor.close();
+				return 0;
+			}
+			throw new UnsupportedOperationException("Unknown operation " + operation);
+		}
+		
+		private Audio getAudio() {
+			if (audio == null) {
+				audio = brick.getAudio();
+			}
+			return audio;
+		}
+		
+		private Power getPower() {
+			if (power == null) {
+				power = brick.getPower();
+			}
+			return power;
+		}
+		
+		private void closeMotors() {
+			List<RMIRegulatedMotor> open;
+			synchronized (motors) {
+				open = new ArrayList<>(motors.values());
+				motors.clear();
+			}
+			for (RMIRegulatedMotor motor : open) {
+				try {
+					motor.close();
+				} catch (RemoteException | RuntimeException e) {
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package at.fhhgb.scanner;
+
+import java.rmi.RemoteException;
+import lejos.hardware.Audio;
+import lejos.hardware.Power;
+import lejos.remote.ev3.RMIRegulatedMotor;
+
+/// The part of an EV3 brick used by the ScannerController. Implemented by RemoteBrick for a real brick and by SimulatedBrick for a local simulation.
+public interface Brick {
+	
+	public RMIRegulatedMotor createRegulatedMotor(String port, char type);
+	
+	public Audio getAudio();
+	
+	public Power getPower();
+	
+	/// Makes the cheapest possible remote call, used to measure the round trip time.
+	public void ping() throws RemoteException;
+	
+	/// Releases the connection. Motors should be closed before, the brick cannot be used afterwards.
+	public void close();
+}
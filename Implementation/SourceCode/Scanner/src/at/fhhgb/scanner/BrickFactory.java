@@ -0,0 +1,11 @@
+package at.fhhgb.scanner;
+
+import java.net.MalformedURLException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+
+/// Creates the brick connection used by the ScannerController.
+public interface BrickFactory {
+	
+	public Brick connect(String ip) throws RemoteException, MalformedURLException, NotBoundException;
+}
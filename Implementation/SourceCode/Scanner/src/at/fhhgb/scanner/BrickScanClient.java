@@ -0,0 +1,195 @@
+package at.fhhgb.scanner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/// Client of the scan server running on the brick (ScanServer of ScannerEV3). A scan takes an ARM and a SCAN command, the timing runs on the brick.
+/**
+ * The protocol is line based: ARM speed distance, SCAN countdown, STOP and
+ * STATUS are answered with one line, OK, STATUS state tacho elapsed duration
+ * or ERROR followed by a message. While a scan runs the server sends lines
+ * starting with EVENT, which are passed to the listener on the reader thread.
+ * Commands are sent one at a time. A broken connection is opened again once;
+ * ARM and SCAN are only sent again if they could not be written, as the brick
+ * may have executed them already. SimulatedScanServer implements the other
+ * side on the PC.
+ */
+public class BrickScanClient {
+
+	public static final int DEFAULT_PORT = 5578;
+
+	private static final int CONNECT_TIMEOUT = 2000;
+	private static final int READ_TIMEOUT = 2000;
+
+	/// Receives the events of the scan server. Called on the reader thread, so it should return quickly.
+	public interface Listener {
+		public void onScanEvent(ScanEvent event);
+	}
+
+	private final String host;
+	private final int port;
+	private volatile Listener listener = null;
+
+	//Guarded by this
+	private Socket socket = null;
+	private OutputStream output = null;
+	private BlockingQueue<String> replies = null;
+
+	private LatencyRecorder roundTrip = new LatencyRecorder();
+
+	public BrickScanClient(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	/// Creates the client from an address in the form host:port or host.
+	public static BrickScanClient fromAddress(String address) {
+		int separator = address.lastIndexOf(':');
+		if (separator == -1) {
+			return new BrickScanClient(address, DEFAULT_PORT);
+		}
+		return new BrickScanClient(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1)));
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/// Sets the scan speed and distance and resets the tacho counts on the brick.
+	public boolean arm(int speed, int distance) {
+		return "OK".equals(send("ARM " + speed + " " + distance, false));
+	}
+
+	/// Starts the countdown of the given length in ms, the motors start when it ends.
+	public boolean scan(int countdown) {
+		return "OK".equals(send("SCAN " + countdown, false));
+	}
+
+	public boolean stop() {
+		return "OK".equals(send("STOP", true));
+	}
+
+	/// Returns the status line, e.g. "STATUS SCANNING 360 1000 53000", or null if the server is not reachable.
+	public String getStatus() {
+		String reply = send("STATUS", true);
+		return reply != null && reply.startsWith("STATUS") ? reply : null;
+	}
+
+	public synchronized boolean isConnected() {
+		return socket != null;
+	}
+
+	public synchronized void close() {
+		disconnect();
+	}
+
+	/// Returns the round trip times of the commands in nanoseconds.
+	public LatencyRecorder getRoundTrip() {
+		return roundTrip;
+	}
+
+	//Returns the reply or null if the server is not reachable
+	//Only an idempotent command is sent again after it may have reached the other side
+	private synchronized String send(String command, boolean idempotent) {
+		for (int attempt=0; attempt<2; attempt++) {
+			boolean sent = false;
+			try {
+				if (socket == null) {
+					connect();
+				}
+				long start = System.nanoTime();
+				output.write((command + "\n").getBytes(StandardCharsets.US_ASCII));
+				output.flush();
+				sent = true;
+				String reply = replies.poll(READ_TIMEOUT, TimeUnit.MILLISECONDS);
+				if (reply == null) {
+					throw new IOException("No reply.");
+				}
+				roundTrip.record(System.nanoTime() - start);
+				if (reply.startsWith("ERROR")) {
+					System.out.println("Scan server: " + reply);
+				}
+				return reply;
+			} catch (IOException e) {
+				disconnect();
+				if (sent && !idempotent) {
+					return null;
+				}
+			} catch (InterruptedException e) {
+				//The reply of this command would be taken as reply of the next one
+				disconnect();
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+		return null;
+	}
+
+	private void connect() throws IOException {
+		final Socket socket = new Socket();
+		try {
+			socket.setTcpNoDelay(true);
+			socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+			final BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			final BlockingQueue<String> replies = new ArrayBlockingQueue<>(1);
+			Thread readerThread = new Thread("Scan server reader") {
+				public void run() {
+					read(socket, input, replies);
+				}
+			};
+			readerThread.setDaemon(true);
+			this.output = socket.getOutputStream();
+			this.replies = replies;
+			this.socket = socket;
+			readerThread.start();
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	//Runs in the reader thread of the connection until it is closed
+	private void read(Socket socket, BufferedReader input, BlockingQueue<String> replies) {
+		try {
+			String line;
+			while ((line = input.readLine()) != null) {
+				if (line.startsWith("EVENT ")) {
+					ScanEvent event = ScanEvent.parse(line.substring(6), System.nanoTime());
+					Listener listener = this.listener;
+					if (event != null && listener != null) {
+						listener.onScanEvent(event);
+					}
+				}
+				else if (!replies.offer(line)) {
+					System.out.println("Scan server: unexpected reply " + line);
+				}
+			}
+		} catch (IOException e) {
+		}
+		synchronized (this) {
+			if (this.socket == socket) {
+				disconnect();
+			}
+		}
+	}
+
+	private void disconnect() {
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+		socket = null;
+		output = null;
+		replies = null;
+	}
+}
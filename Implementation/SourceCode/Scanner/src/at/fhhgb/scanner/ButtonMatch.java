@@ -0,0 +1,54 @@
+package at.fhhgb.scanner;
+
+/// Position of a button found on the screen together with the confidence of the match.
+public final class ButtonMatch {
+	
+	private final int x;
+	private final int y;
+	private final int width;
+	private final int height;
+	private final double confidence;
+	private final double scale;
+	
+	public ButtonMatch(int x, int y, int width, int height, double confidence, double scale) {
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+		this.confidence = confidence;
+		this.scale = scale;
+	}
+	
+	/// Returns the x coordinate of the button centre.
+	public int getX() {
+		return x;
+	}
+	
+	/// Returns the y coordinate of the button centre.
+	public int getY() {
+		return y;
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	
+	public int getHeight() {
+		return height;
+	}
+	
+	/// Returns the match confidence from -1 (inverted) over 0 (no match) to 1 (perfect match).
+	public double getConfidence() {
+		return confidence;
+	}
+	
+	/// Returns the scale of the template that matched, e.g. 1.5 for 150% display scaling.
+	public double getScale() {
+		return scale;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%d/%d (confidence %.2f, scale %.2f)", x, y, confidence, scale);
+	}
+}
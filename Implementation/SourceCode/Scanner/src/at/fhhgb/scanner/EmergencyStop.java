@@ -0,0 +1,93 @@
+package at.fhhgb.scanner;
+
+/// Runs the motor stop on a dedicated thread that is started ahead of time, so a stop request never waits for thread creation, locks or other work.
+/**
+ * Requests arriving while a stop is in progress are coalesced into the next
+ * stop. The stop latency is measured from the first pending request until the
+ * stop action returned.
+ */
+public class EmergencyStop {
+	
+	private Runnable action = null;
+	private Thread thread = null;
+	private LatencyRecorder latency = new LatencyRecorder();
+	
+	//Guarded by this
+	private long pendingSince = -1;
+	private long requested = 0;
+	private long completed = 0;
+	
+	public EmergencyStop(Runnable action) {
+		this.action = action;
+		this.thread = new Thread("Emergency stop") {
+			public void run() {
+				try {
+					while (true) {
+						long requestTime;
+						long sequence;
+						synchronized (EmergencyStop.this) {
+							while (pendingSince < 0) {
+								EmergencyStop.this.wait();
+							}
+							requestTime = pendingSince;
+							sequence = requested;
+							pendingSince = -1;
+						}
+						
+						try {
+							EmergencyStop.this.action.run();
+						} catch (RuntimeException e) {
+							System.out.println("Emergency stop failed: " + e.getMessage());
+						}
+						long nanos = System.nanoTime() - requestTime;
+						latency.record(nanos);
+						System.out.println(String.format("Stop took %.2f ms.", nanos / 1000000.0));
+						
+						synchronized (EmergencyStop.this) {
+							completed = sequence;
+							EmergencyStop.this.notifyAll();
+						}
+					}
+				} catch (InterruptedException e) {
+					System.out.println("Interrupted emergency stop thread");
+				}
+			}
+		};
+		this.thread.setDaemon(true);
+		this.thread.setPriority(Thread.MAX_PRIORITY);
+		this.thread.start();
+	}
+	
+	/// Requests a stop and returns immediately. Returns the sequence number of the request.
+	public synchronized long request() {
+		if (pendingSince < 0) {
+			pendingSince = System.nanoTime();
+		}
+		requested++;
+		notifyAll();
+		return requested;
+	}
+	
+	/// Returns the number of requests made so far, used to detect stops that happened during another command.
+	public synchronized long getRequested() {
+		return requested;
+	}
+	
+	/// Waits until the stop with the given sequence number has completed. Returns false on timeout.
+	public synchronized boolean await(long sequence, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (completed < sequence) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return false;
+			}
+			wait(remaining);
+		}
+		return true;
+	}
+	
+	/// Returns the measured latency from stop request until the motors acknowledged the stop.
+	public LatencyRecorder getLatency() {
+		return latency;
+	}
+}
@@ -0,0 +1,191 @@
+package at.fhhgb.scanner;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/// Pings the brick at a fixed interval, measures the round trip time and publishes the LinkState to the ScannerObservable.
+/**
+ * A ping that has not returned is checked on every tick, so a hanging link is
+ * detected without waiting for the TCP timeout of the remote call: the link
+ * is degraded once a round trip takes longer than DEGRADED_ROUND_TRIP or a
+ * ping failed, and dead once a ping is outstanding for the timeout or
+ * DEAD_FAILURES pings in a row failed. A dead link is reported at most one
+ * interval after the timeout.
+ * The ticks run in a lane with two threads, so one thread can check while the
+ * other one hangs in a ping.
+ */
+public class Heartbeat {
+	
+	/// Round trip time in ms from which the link is degraded.
+	public static final int DEGRADED_ROUND_TRIP = 100;
+	
+	/// Number of failed pings in a row after which the link is dead.
+	public static final int DEAD_FAILURES = 3;
+	
+	/// Upper bounds in ns of the buckets of getHistogram().
+	public static final long HISTOGRAM_BOUNDS[] = new long[] { 5000000L, 10000000L, 20000000L, 50000000L, 100000000L, 200000000L, 500000000L, 1000000000L };
+	
+	private Brick brick = null;
+	private ScannerObservable scannerObservable = null;
+	private Runnable onDead = null;
+	private long interval = 0;
+	private long timeout = 0;
+	private LatencyRecorder roundTrip = new LatencyRecorder();
+	
+	//Guarded by this
+	private ScheduledFuture<?> task = null;
+	private boolean running = false;
+	private long pingStart = -1;
+	private long lastRoundTrip = -1;
+	private int failures = 0;
+	private LinkState state = LinkState.UNKNOWN;
+	
+	/// Creates a heartbeat with the given interval and timeout in ms. onDead runs once when the link is declared dead.
+	public Heartbeat(Brick brick, ScannerObservable scannerObservable, long interval, long timeout, Runnable onDead) {
+		this.brick = brick;
+		this.scannerObservable = scannerObservable;
+		this.interval = Math.max(1, interval);
+		this.timeout = Math.max(this.interval, timeout);
+		this.onDead = onDead;
+	}
+	
+	public synchronized void start(TaskScheduler scheduler, final TaskLane lane) {
+		if (running) {
+			return;
+		}
+		running = true;
+		try {
+			task = scheduler.scheduleRepeated(lane, new Runnable() {
+				@Override
+				public void run() {
+					tick();
+				}
+			}, 0, interval, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			//Scheduler closed
+			running = false;
+		}
+	}
+	
+	/// Stops pinging and resets the link state to unknown.
+	public void stop() {
+		synchronized (this) {
+			running = false;
+			if (task != null) {
+				task.cancel(false);
+			}
+			state = LinkState.UNKNOWN;
+		}
+		scannerObservable.setLinkState(LinkState.UNKNOWN);
+	}
+	
+	public synchronized LinkState getState() {
+		return state;
+	}
+	
+	/// Returns the round trip times of the pings in ns.
+	public LatencyRecorder getRoundTrip() {
+		return roundTrip;
+	}
+	
+	/// Returns the number of recent pings per bucket of HISTOGRAM_BOUNDS.
+	public int[] getHistogram() {
+		return roundTrip.getHistogram(HISTOGRAM_BOUNDS);
+	}
+	
+	@Override
+	public String toString() {
+		int histogram[] = getHistogram();
+		StringBuilder builder = new StringBuilder("Heartbeat " + getState() + ", " + roundTrip + ", histogram");
+		for (int i=0; i<histogram.length; i++) {
+			builder.append(i < HISTOGRAM_BOUNDS.length ? " <=" + HISTOGRAM_BOUNDS[i] / 1000000 + "ms:" : " >" + HISTOGRAM_BOUNDS[i - 1] / 1000000 + "ms:");
+			builder.append(histogram[i]);
+		}
+		return builder.toString();
+	}
+	
+	private void tick() {
+		long start = -1;
+		boolean dead = false;
+		synchronized (this) {
+			if (!running) {
+				return;
+			}
+			if (pingStart >= 0) {
+				//Previous ping still outstanding, only check for how long
+				dead = update();
+			}
+			else {
+				start = System.nanoTime();
+				pingStart = start;
+			}
+		}
+		if (dead) {
+			onDead.run();
+		}
+		if (start < 0) {
+			return;
+		}
+		
+		boolean failed = false;
+		try {
+			brick.ping();
+		} catch (RemoteException e) {
+			failed = true;
+		} catch (RuntimeException e) {
+			failed = true;
+		}
+		long nanos = System.nanoTime() - start;
+		
+		synchronized (this) {
+			pingStart = -1;
+			if (failed) {
+				failures++;
+			}
+			else {
+				failures = 0;
+				lastRoundTrip = nanos;
+				roundTrip.record(nanos);
+			}
+			dead = running && update();
+		}
+		if (dead) {
+			onDead.run();
+		}
+	}
+	
+	//Called with the lock held, returns true if the link just died
+	private boolean update() {
+		long outstanding = pingStart >= 0 ? System.nanoTime() - pingStart : 0;
+		LinkState next;
+		if (state == LinkState.DEAD || failures >= DEAD_FAILURES || outstanding >= timeout * 1000000L) {
+			//Dead stays dead until the heartbeat is restarted
+			next = LinkState.DEAD;
+		}
+		else if (failures > 0 || outstanding > DEGRADED_ROUND_TRIP * 1000000L || lastRoundTrip > DEGRADED_ROUND_TRIP * 1000000L) {
+			next = LinkState.DEGRADED;
+		}
+		else if (lastRoundTrip >= 0) {
+			next = LinkState.HEALTHY;
+		}
+		else {
+			next = LinkState.UNKNOWN;
+		}
+		
+		if (next != state) {
+			state = next;
+			System.out.println("Link " + next + (lastRoundTrip >= 0 ? String.format(" (round trip %.2f ms)", lastRoundTrip / 1e6) : "") + ".");
+			scannerObservable.setLinkState(next);
+			if (next == LinkState.DEAD) {
+				running = false;
+				if (task != null) {
+					task.cancel(false);
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,105 @@
+package at.fhhgb.scanner;
+
+import java.util.Arrays;
+
+/// Records latencies in ns and keeps the most recent samples for percentile calculation.
+public class LatencyRecorder {
+	
+	/// Default number of recent samples used for percentiles.
+	public static final int DEFAULT_WINDOW = 1024;
+	
+	private long samples[] = null;
+	private int next = 0;
+	private long count = 0;
+	private long total = 0;
+	private long last = -1;
+	private long min = Long.MAX_VALUE;
+	private long max = -1;
+	
+	public LatencyRecorder() {
+		this(DEFAULT_WINDOW);
+	}
+	
+	public LatencyRecorder(int window) {
+		samples = new long[Math.max(1, window)];
+	}
+	
+	public synchronized void record(long nanos) {
+		samples[next] = nanos;
+		next = (next + 1) % samples.length;
+		count++;
+		total += nanos;
+		last = nanos;
+		min = Math.min(min, nanos);
+		max = Math.max(max, nanos);
+	}
+	
+	public synchronized long getCount() {
+		return count;
+	}
+	
+	public synchronized long getLast() {
+		return last;
+	}
+	
+	public synchronized long getMin() {
+		return count > 0 ? min : -1;
+	}
+	
+	public synchronized long getMax() {
+		return max;
+	}
+	
+	/// Returns the sum of all recorded latencies in ns.
+	public synchronized long getTotal() {
+		return total;
+	}
+	
+	public synchronized long getMean() {
+		return count > 0 ? total / count : -1;
+	}
+	
+	/// Returns the given percentile (0 to 100) of the recent samples or -1 if nothing was recorded.
+	public long getPercentile(double percentile) {
+		long sorted[];
+		synchronized (this) {
+			if (count == 0) {
+				return -1;
+			}
+			sorted = Arrays.copyOf(samples, (int)Math.min(count, samples.length));
+		}
+		Arrays.sort(sorted);
+		int index = (int)Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return sorted[Math.min(sorted.length - 1, Math.max(0, index))];
+	}
+	
+	/// Counts the recent samples per bucket. Bucket i holds samples up to bounds[i] ns, the last bucket all samples above the last bound.
+	public int[] getHistogram(long bounds[]) {
+		int buckets[] = new int[bounds.length + 1];
+		synchronized (this) {
+			int n = (int)Math.min(count, samples.length);
+			for (int i=0; i<n; i++) {
+				int b = 0;
+				while (b < bounds.length && samples[i] > bounds[b]) {
+					b++;
+				}
+				buckets[b]++;
+			}
+		}
+		return buckets;
+	}
+	
+	public synchronized void reset() {
+		next = 0;
+		count = 0;
+		total = 0;
+		last = -1;
+		min = Long.MAX_VALUE;
+		max = -1;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("n=%d last=%.2fms p50=%.2fms p99=%.2fms max=%.2fms", getCount(), getLast() / 1e6, getPercentile(50) / 1e6, getPercentile(99) / 1e6, getMax() / 1e6);
+	}
+}
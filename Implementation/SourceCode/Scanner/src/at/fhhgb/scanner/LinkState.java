@@ -0,0 +1,17 @@
+package at.fhhgb.scanner;
+
+/// Health of the connection to the brick as measured by the Heartbeat.
+public enum LinkState {
+	
+	/// No heartbeat running, e.g. while not connected.
+	UNKNOWN,
+	
+	/// Round trips are fast.
+	HEALTHY,
+	
+	/// Round trips are slow or single heartbeats failed.
+	DEGRADED,
+	
+	/// The brick did not answer within the heartbeat timeout.
+	DEAD
+}
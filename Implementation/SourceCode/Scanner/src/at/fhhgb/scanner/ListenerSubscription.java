@@ -0,0 +1,128 @@
+package at.fhhgb.scanner;
+
+import java.util.concurrent.Executor;
+
+/// Delivers the states published by ScannerObservable to one listener on a dispatch thread, so a slow listener never delays the publishing thread.
+/**
+ * Pending states are kept in a bounded queue. When the queue is full the
+ * oldest state is dropped; with LATEST_ONLY the queue holds a single state,
+ * so the listener always gets the newest one. A listener is never called
+ * concurrently. The lag is measured from publishing a state until the
+ * listener returned. A run delivers one state and queues itself again
+ * behind the other subscriptions if more are pending, so a listener that is
+ * always behind does not keep a dispatch thread to itself.
+ */
+public class ListenerSubscription implements Runnable {
+	
+	public enum DeliveryPolicy {
+		/// Only the newest state is delivered.
+		LATEST_ONLY,
+		/// Every state is delivered, the oldest pending state is dropped when the queue is full.
+		DROP_OLDEST
+	}
+	
+	private ScannerListener listener = null;
+	private DeliveryPolicy policy = null;
+	private Executor executor = null;
+	
+	//Ring buffer of pending states, guarded by this
+	private ScannerState states[] = null;
+	private long times[] = null;
+	private int head = 0;
+	private int size = 0;
+	private boolean scheduled = false;
+	
+	private LatencyRecorder lag = new LatencyRecorder();
+	private volatile long delivered = 0;
+	private volatile long dropped = 0;
+	
+	ListenerSubscription(ScannerListener listener, DeliveryPolicy policy, int capacity, Executor executor) {
+		this.listener = listener;
+		this.policy = policy;
+		this.executor = executor;
+		int length = policy == DeliveryPolicy.LATEST_ONLY ? 1 : Math.max(1, capacity);
+		this.states = new ScannerState[length];
+		this.times = new long[length];
+	}
+	
+	public ScannerListener getListener() {
+		return listener;
+	}
+	
+	public DeliveryPolicy getPolicy() {
+		return policy;
+	}
+	
+	/// Returns the time from publishing a state until the listener processed it.
+	public LatencyRecorder getLag() {
+		return lag;
+	}
+	
+	public long getDelivered() {
+		return delivered;
+	}
+	
+	/// Returns the number of states that were replaced by newer ones before being delivered.
+	public long getDropped() {
+		return dropped;
+	}
+	
+	public synchronized int getPending() {
+		return size;
+	}
+	
+	void offer(ScannerState state, long publishTime) {
+		synchronized (this) {
+			if (size == states.length) {
+				states[head] = null;
+				head = (head + 1) % states.length;
+				size--;
+				dropped++;
+			}
+			int tail = (head + size) % states.length;
+			states[tail] = state;
+			times[tail] = publishTime;
+			size++;
+			if (scheduled) {
+				return;
+			}
+			scheduled = true;
+		}
+		executor.execute(this);
+	}
+	
+	@Override
+	public void run() {
+		ScannerState state;
+		long publishTime;
+		synchronized (this) {
+			if (size == 0) {
+				scheduled = false;
+				return;
+			}
+			state = states[head];
+			publishTime = times[head];
+			states[head] = null;
+			head = (head + 1) % states.length;
+			size--;
+		}
+		
+		try {
+			listener.stateChanged(state);
+		}
+		catch(Exception e) {
+			System.out.println("Notify listener error:\r\n" + e.getMessage());
+		}
+		delivered++;
+		lag.record(System.nanoTime() - publishTime);
+		
+		//Still scheduled, the next state waits behind the other subscriptions
+		synchronized (this) {
+			if (size == 0) {
+				scheduled = false;
+				return;
+			}
+		}
+		executor.execute(this);
+	}
+}
@@ -0,0 +1,329 @@
+package at.fhhgb.scanner;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import lejos.remote.ev3.RMIRegulatedMotor;
+
+/// Sends commands to all motors of the scanner at the same time, so the motors start and stop together instead of one round trip after another.
+/**
+ * Every command is sent to each motor on its own dispatch thread. The skew of
+ * a command is the time between the first and the last motor completing it
+ * and is recorded for each command type.
+ * Speeds are cached, so setSpeed can be called ahead of time (e.g. during
+ * the scan countdown) and only the start commands remain on the critical path.
+ * Stop commands have their own started threads and never queue behind other
+ * commands. Other brick traffic can check isBusy() or awaitIdle() to give
+ * motor commands priority.
+ */
+public class MotorGroup {
+	
+	public enum Command {
+		SPEED, FORWARD, BACKWARD, STOP, CLOSE, RESET_TACHO, TACHO
+	}
+	
+	private static final AtomicInteger GROUP_COUNT = new AtomicInteger();
+	
+	private List<RMIRegulatedMotor> motors = null;
+	private int speeds[] = null;
+	private ThreadPoolExecutor executor = null;
+	private ThreadPoolExecutor stopExecutor = null;
+	private volatile boolean closed = false;
+	
+	//Number of commands in progress, guarded by idleLock
+	private final Object idleLock = new Object();
+	private int inFlight = 0;
+	
+	private AtomicLongArray lastSkew = new AtomicLongArray(Command.values().length);
+	private AtomicLongArray maxSkew = new AtomicLongArray(Command.values().length);
+	private AtomicLongArray count = new AtomicLongArray(Command.values().length);
+	private LatencyRecorder durations[] = new LatencyRecorder[Command.values().length];
+	
+	public MotorGroup(List<RMIRegulatedMotor> motors) {
+		this.motors = new ArrayList<>(motors);
+		this.speeds = new int[motors.size()];
+		for (int i=0; i<speeds.length; i++) {
+			speeds[i] = -1;
+		}
+		
+		for (int i=0; i<durations.length; i++) {
+			durations[i] = new LatencyRecorder();
+		}
+		
+		int group = GROUP_COUNT.incrementAndGet();
+		this.executor = (ThreadPoolExecutor)Executors.newFixedThreadPool(Math.max(1, motors.size()), createThreadFactory("Motor dispatch " + group));
+		this.stopExecutor = (ThreadPoolExecutor)Executors.newFixedThreadPool(Math.max(1, motors.size()), createThreadFactory("Motor stop " + group));
+		this.stopExecutor.prestartAllCoreThreads();
+	}
+	
+	public int size() {
+		return motors.size();
+	}
+	
+	public RMIRegulatedMotor get(int index) {
+		return motors.get(index);
+	}
+	
+	/// Sets the speed of all motors. Motors already running at the given speed are skipped.
+	public void setSpeed(final int speed) throws RemoteException {
+		List<Integer> changed = new ArrayList<>();
+		synchronized (speeds) {
+			for (int i=0; i<speeds.length; i++) {
+				if (speeds[i] != speed) {
+					changed.add(i);
+				}
+			}
+		}
+		if (changed.isEmpty()) {
+			return;
+		}
+		dispatch(Command.SPEED, changed, speed);
+		synchronized (speeds) {
+			for (int i : changed) {
+				speeds[i] = speed;
+			}
+		}
+	}
+	
+	public void forward() throws RemoteException {
+		dispatch(Command.FORWARD, all(), 0);
+	}
+	
+	public void backward() throws RemoteException {
+		dispatch(Command.BACKWARD, all(), 0);
+	}
+	
+	/// Stops all motors. May be called concurrently to other commands.
+	public void stop() throws RemoteException {
+		dispatch(Command.STOP, all(), 0);
+	}
+	
+	public void resetTachoCount() throws RemoteException {
+		dispatch(Command.RESET_TACHO, all(), 0);
+	}
+	
+	/// Returns the mean absolute tacho count of all motors in degrees.
+	public int getTachoCount() throws RemoteException {
+		int values[] = dispatch(Command.TACHO, all(), 0);
+		long sum = 0;
+		for (int value : values) {
+			sum += Math.abs(value);
+		}
+		return values.length > 0 ? (int)(sum / values.length) : 0;
+	}
+	
+	/// Sends a harmless command of each kind, so the first real commands do not pay for thread start, class loading and RMI connection setup.
+	/**
+	 * Reads the tacho counts, sets the given speed (which is cached like any
+	 * other setSpeed) and stops the motors. Should only be called while the
+	 * motors are not supposed to move.
+	 */
+	public void warmUp(int speed) throws RemoteException {
+		executor.prestartAllCoreThreads();
+		getTachoCount();
+		setSpeed(speed);
+		stop();
+	}
+	
+	/// Closes all motors and stops the dispatch threads. Commands sent afterwards are ignored.
+	public void close() throws RemoteException {
+		try {
+			dispatch(Command.CLOSE, all(), 0);
+		} finally {
+			closed = true;
+			executor.shutdown();
+			stopExecutor.shutdown();
+		}
+	}
+	
+	public boolean isClosed() {
+		return closed;
+	}
+	
+	/// Returns true while a command is in progress.
+	public boolean isBusy() {
+		synchronized (idleLock) {
+			return inFlight > 0;
+		}
+	}
+	
+	/// Waits until no command is in progress, at most the timeout in ms. Returns false on timeout.
+	public boolean awaitIdle(long timeout) throws InterruptedException {
+		long end = System.nanoTime() + timeout * 1000000L;
+		synchronized (idleLock) {
+			while (inFlight > 0) {
+				long remaining = end - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				idleLock.wait(remaining / 1000000L, (int)(remaining % 1000000L));
+			}
+			return true;
+		}
+	}
+	
+	/// Returns the skew in ns of the last command of the given type.
+	public long getLastSkew(Command command) {
+		return lastSkew.get(command.ordinal());
+	}
+	
+	/// Returns the maximum skew in ns of all commands of the given type.
+	public long getMaxSkew(Command command) {
+		return maxSkew.get(command.ordinal());
+	}
+	
+	/// Returns the number of dispatched commands of the given type.
+	public long getCount(Command command) {
+		return count.get(command.ordinal());
+	}
+	
+	/// Returns the time from sending a command of the given type until all motors completed it.
+	public LatencyRecorder getDuration(Command command) {
+		return durations[command.ordinal()];
+	}
+	
+	private List<Integer> all() {
+		List<Integer> indices = new ArrayList<>(motors.size());
+		for (int i=0; i<motors.size(); i++) {
+			indices.add(i);
+		}
+		return indices;
+	}
+	
+	//Returns the result of each motor for commands with a result
+	private int[] dispatch(Command command, List<Integer> indices, int speed) throws RemoteException {
+		synchronized (idleLock) {
+			inFlight++;
+		}
+		try {
+			return send(command, indices, speed);
+		} finally {
+			synchronized (idleLock) {
+				if (--inFlight == 0) {
+					idleLock.notifyAll();
+				}
+			}
+		}
+	}
+	
+	private int[] send(final Command command, List<Integer> indices, final int speed) throws RemoteException {
+		final int values[] = new int[indices.size()];
+		List<Callable<Long>> tasks = new ArrayList<>(indices.size());
+		for (int i=0; i<indices.size(); i++) {
+			final int index = i;
+			final RMIRegulatedMotor motor = motors.get(indices.get(i));
+			tasks.add(new Callable<Long>() {
+				@Override
+				public Long call() throws RemoteException {
+					values[index] = execute(motor, command, speed);
+					return System.nanoTime();
+				}
+			});
+		}
+		
+		if (closed) {
+			return values;
+		}
+		long start = System.nanoTime();
+		
+		//Submit all commands first, waiting is not interruptible so the commands are never cancelled half way
+		ExecutorService commandExecutor = command == Command.STOP ? stopExecutor : executor;
+		List<Future<Long>> results = new ArrayList<>(tasks.size());
+		try {
+			for (Callable<Long> task : tasks) {
+				results.add(commandExecutor.submit(task));
+			}
+		} catch (RejectedExecutionException e) {
+			//Closed concurrently
+			return values;
+		}
+		
+		RemoteException error = null;
+		boolean interrupted = false;
+		long first = Long.MAX_VALUE;
+		long last = Long.MIN_VALUE;
+		for (Future<Long> result : results) {
+			while (true) {
+				try {
+					long time = result.get();
+					first = Math.min(first, time);
+					last = Math.max(last, time);
+					break;
+				} catch (ExecutionException e) {
+					if (error == null) {
+						error = e.getCause() instanceof RemoteException ? (RemoteException)e.getCause() : new RemoteException(command + " failed", e.getCause());
+					}
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (error != null) {
+			throw error;
+		}
+		
+		int c = command.ordinal();
+		long skew = last - first;
+		count.incrementAndGet(c);
+		durations[c].record(last - start);
+		lastSkew.set(c, skew);
+		long max;
+		while (skew > (max = maxSkew.get(c)) && !maxSkew.compareAndSet(c, max, skew)) {
+		}
+		return values;
+	}
+	
+	private static ThreadFactory createThreadFactory(final String name) {
+		return new ThreadFactory() {
+			private int n = 0;
+			
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name + "-" + (n++));
+				t.setDaemon(true);
+				t.setPriority(Thread.MAX_PRIORITY);
+				return t;
+			}
+		};
+	}
+	
+	private static int execute(RMIRegulatedMotor motor, Command command, int speed) throws RemoteException {
+		switch (command) {
+			case SPEED:
+				motor.setSpeed(speed);
+				break;
+			case FORWARD:
+				motor.forward();
+				break;
+			case BACKWARD:
+				motor.backward();
+				break;
+			case STOP:
+				motor.stop(true);
+				break;
+			case CLOSE:
+				motor.close();
+				break;
+			case RESET_TACHO:
+				motor.resetTachoCount();
+				break;
+			case TACHO:
+				return motor.getTachoCount();
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,119 @@
+package at.fhhgb.scanner;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/// Watches if a process with a given executable name is running, without starting a process like tasklist.exe.
+/**
+ * The process list is read with ProcessHandle.allProcesses() on a background
+ * thread every half TTL, so the cached result is renewed before it gets older
+ * than the TTL. While the background refresh runs, isRunning() returns the
+ * cached result and only reads the process list itself if there is none yet.
+ * Without start() it reads the list whenever the result is older than the
+ * TTL. Only one read runs at a time. Works on Windows and Linux.
+ */
+public class ProcessWatcher {
+	
+	private String processName = null;
+	private long ttl = 0;
+	private ScheduledExecutorService scheduler = null;
+	
+	private final Object refreshLock = new Object();
+	private volatile boolean running = false;
+	private volatile long refreshTime = -1;
+	private volatile boolean refreshing = false;
+	
+	/// Creates a watcher for the given executable name (e.g. "Sense.exe") with the given cache TTL in ms.
+	public ProcessWatcher(String processName, long ttl) {
+		this.processName = processName;
+		this.ttl = Math.max(1, ttl);
+	}
+	
+	public String getProcessName() {
+		return processName;
+	}
+	
+	/// Starts refreshing in the background.
+	public synchronized void start() {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Process watcher " + processName);
+					t.setDaemon(true);
+					t.setPriority(Thread.MIN_PRIORITY);
+					return t;
+				}
+			});
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					refresh();
+				}
+			}, 0, Math.max(1, ttl / 2), TimeUnit.MILLISECONDS);
+			refreshing = true;
+		}
+	}
+	
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+			refreshing = false;
+		}
+	}
+	
+	/// Returns whether the process is running, at most TTL ms old.
+	public boolean isRunning() {
+		if (refreshTime < 0 || (!refreshing && isStale())) {
+			synchronized (refreshLock) {
+				//Another caller or the background thread may have read the list while this one waited
+				if (refreshTime < 0 || isStale()) {
+					refresh();
+				}
+			}
+		}
+		return running;
+	}
+	
+	private boolean isStale() {
+		return System.nanoTime() - refreshTime > ttl * 1000000L;
+	}
+	
+	/// Reads the process list now.
+	public boolean refresh() {
+		synchronized (refreshLock) {
+			return readProcesses();
+		}
+	}
+	
+	private boolean readProcesses() {
+		boolean found = false;
+		Iterator<ProcessHandle> processes = ProcessHandle.allProcesses().iterator();
+		while (!found && processes.hasNext()) {
+			Optional<String> command = processes.next().info().command();
+			if (command.isPresent() && matches(command.get())) {
+				found = true;
+			}
+		}
+		running = found;
+		refreshTime = System.nanoTime();
+		return found;
+	}
+	
+	private boolean matches(String command) {
+		Path fileName;
+		try {
+			fileName = Paths.get(command).getFileName();
+		} catch (RuntimeException e) {
+			return false;
+		}
+		return fileName != null && fileName.toString().equalsIgnoreCase(processName);
+	}
+}
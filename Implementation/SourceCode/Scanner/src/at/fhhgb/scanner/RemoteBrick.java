@@ -0,0 +1,111 @@
+package at.fhhgb.scanner;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.server.RMISocketFactory;
+import lejos.hardware.Audio;
+import lejos.hardware.Power;
+import lejos.remote.ev3.RMIEV3;
+import lejos.remote.ev3.RMIRegulatedMotor;
+import lejos.remote.ev3.RemoteEV3;
+
+/// A real brick connected via leJOS RMI.
+public class RemoteBrick implements Brick {
+	
+	/// Factory connecting to a real brick at the given IP address.
+	public static final BrickFactory FACTORY = new BrickFactory() {
+		@Override
+		public Brick connect(String ip) throws RemoteException, MalformedURLException, NotBoundException {
+			return new RemoteBrick(ip);
+		}
+	};
+	
+	//Connection attempts to an unreachable brick fail after this time instead of the TCP default, so reconnects stay responsive
+	private static final int CONNECT_TIMEOUT = 2000;
+	
+	//A call without reply fails after this time; no call of the scanner blocks on the brick longer than a sound
+	private static final String RESPONSE_TIMEOUT = "10000";
+	
+	static {
+		if (System.getProperty("sun.rmi.transport.tcp.responseTimeout") == null) {
+			System.setProperty("sun.rmi.transport.tcp.responseTimeout", RESPONSE_TIMEOUT);
+		}
+		try {
+			RMISocketFactory.setSocketFactory(new RMISocketFactory() {
+				@Override
+				public Socket createSocket(String host, int port) throws IOException {
+					Socket socket = new Socket();
+					try {
+						socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+					} catch (IOException e) {
+						socket.close();
+						throw e;
+					}
+					return socket;
+				}
+				
+				@Override
+				public ServerSocket createServerSocket(int port) throws IOException {
+					return new ServerSocket(port);
+				}
+			});
+		} catch (IOException e) {
+			//A factory was already set by the application, keep it
+		}
+	}
+	
+	private RemoteEV3 ev3 = null;
+	
+	private String ip = null;
+	
+	//RemoteEV3 keeps its stub private, the own stub is only used for ping and looked up on the first ping to keep it off the connect path
+	private volatile RMIEV3 rmiEV3 = null;
+	
+	public RemoteBrick(String ip) throws RemoteException, MalformedURLException, NotBoundException {
+		ev3 = new RemoteEV3(ip);
+		ev3.setDefault();
+		this.ip = ip;
+	}
+	
+	@Override
+	public RMIRegulatedMotor createRegulatedMotor(String port, char type) {
+		return ev3.createRegulatedMotor(port, type);
+	}
+	
+	@Override
+	public Audio getAudio() {
+		return ev3.getAudio();
+	}
+	
+	@Override
+	public Power getPower() {
+		return ev3.getPower();
+	}
+	
+	@Override
+	public void ping() throws RemoteException {
+		RMIEV3 rmiEV3 = this.rmiEV3;
+		if (rmiEV3 == null) {
+			try {
+				rmiEV3 = (RMIEV3)Naming.lookup("//" + ip + "/RemoteEV3");
+			} catch (MalformedURLException | NotBoundException e) {
+				throw new RemoteException("Lookup failed", e);
+			}
+			this.rmiEV3 = rmiEV3;
+		}
+		rmiEV3.getName();
+	}
+	
+	@Override
+	public void close() {
+		//leJOS keeps no connection per RemoteEV3, the RMI runtime closes idle connections on its own
+		rmiEV3 = null;
+		ev3 = null;
+	}
+}
@@ -0,0 +1,185 @@
+package at.fhhgb.scanner;
+
+import java.awt.AWTException;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.MouseInfo;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.Toolkit;
+import java.awt.event.InputEvent;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
+
+/// Starts and stops the capture in Sense by clicking its scan and stop buttons with a Robot.
+/**
+ * The buttons are found by template matching, see TemplateButtonDetector.
+ * Templates in the resources are used if present, otherwise the area around
+ * the first button found by its colour becomes the template. A match below
+ * the minimum confidence falls back to the colour search in the middle
+ * column of the screen.
+ */
+public class RobotScanSoftware implements ScanSoftware {
+	
+	private static final int ATTEMPTS_MOUSE_MOVE = 10;
+	static final Color SENSE_COLOR_ACTIVE = new Color(0, 174, 240);
+	static final Color SENSE_COLOR_DEFAULT = new Color(106, 106, 106);
+	
+	private static final int PROCESS_TTL = 1000;
+	
+	/// Optional templates of the Sense buttons captured at 100% display scaling. Without them the templates are taken from the screen.
+	private static final String SENSE_TEMPLATE_SCAN = "/resources/sense_scan.png";
+	private static final String SENSE_TEMPLATE_STOP = "/resources/sense_stop.png";
+	
+	/// Size of a template taken from the screen around a button found by its colour.
+	private static final int CAPTURED_TEMPLATE_SIZE = 48;
+	
+	private static final int BUTTON_SCAN = 0;
+	private static final int BUTTON_STOP = 1;
+	
+	private ProcessWatcher processWatcher = null;
+	private SenseButtonLocator buttonLocator = new SenseButtonLocator();
+	
+	//Guarded by this, set once a template is known
+	private TemplateButtonDetector detectors[] = new TemplateButtonDetector[2];
+	
+	//Created once, creating a Robot takes tens of ms
+	private Robot bot = null;
+	
+	public RobotScanSoftware(String processName) {
+		this.processWatcher = new ProcessWatcher(processName, PROCESS_TTL);
+		this.processWatcher.start();
+		loadButtonDetectors();
+	}
+	
+	@Override
+	public boolean isRunning() {
+		return processWatcher.isRunning();
+	}
+	
+	/// Creates the Robot, reads the process list and locates the scan button, so the click only has to verify the cached position.
+	@Override
+	public void prepare() {
+		try {
+			Robot bot = getRobot();
+			if (processWatcher.refresh()) {
+				locateButton(bot, Toolkit.getDefaultToolkit().getScreenSize(), BUTTON_SCAN, SENSE_COLOR_DEFAULT);
+			}
+		} catch (AWTException e) {
+		}
+	}
+	
+	@Override
+	public boolean startCapture() {
+		return clickButton(BUTTON_SCAN, SENSE_COLOR_DEFAULT);
+	}
+	
+	@Override
+	public boolean stopCapture() {
+		return clickButton(BUTTON_STOP, SENSE_COLOR_ACTIVE);
+	}
+	
+	@Override
+	public void close() {
+		processWatcher.close();
+	}
+	
+	private boolean clickButton(int button, Color color) {
+		Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
+		Point mouseLocation = MouseInfo.getPointerInfo().getLocation();
+		try {
+			Robot bot = getRobot();
+			Point location = locateButton(bot, screenSize, button, color);
+			
+			if (location != null) {
+				int x = location.x;
+				int y = location.y;
+				System.out.println("Simulate click on " + x + "/" + y);
+				
+				moveMouseTo(bot, x, y, ATTEMPTS_MOUSE_MOVE);
+				
+				bot.mousePress(InputEvent.BUTTON1_DOWN_MASK);
+				bot.mouseRelease(InputEvent.BUTTON1_DOWN_MASK);
+				moveMouseTo(bot, mouseLocation.x, mouseLocation.y, ATTEMPTS_MOUSE_MOVE);
+				return true;
+			}
+		} catch (AWTException e) {
+		}
+		return false;
+	}
+	
+	private synchronized Robot getRobot() throws AWTException {
+		if (bot == null) {
+			bot = new Robot();
+		}
+		return bot;
+	}
+	
+	private void moveMouseTo(Robot bot, int x, int y, int maxAttempts) {
+		boolean positionCorrect = false;
+		int attempts = 0;
+		do {
+			bot.mouseMove(x, y);
+			attempts++;
+			Point location = MouseInfo.getPointerInfo().getLocation();
+			if (location.x != x || location.y != y) {
+				positionCorrect = false;
+			}
+			else {
+				positionCorrect = true;
+			}
+		} while(!positionCorrect && attempts < maxAttempts);
+	}
+	
+	//Uses the template detector if available, otherwise searches the button colour in the middle column
+	private Point locateButton(Robot bot, Dimension screenSize, int button, Color color) {
+		Rectangle screen = new Rectangle(screenSize);
+		TemplateButtonDetector detector = getDetector(button);
+		if (detector != null) {
+			ButtonMatch match = detector.detect(bot, screen);
+			if (match != null && match.getConfidence() >= detector.getMinConfidence()) {
+				return new Point(match.getX(), match.getY());
+			}
+			System.out.println("Sense button not found by template" + (match != null ? " (best " + match + ")" : "") + ", searching by colour.");
+		}
+		
+		int x = screenSize.width / 2;
+		int y = buttonLocator.locate(bot, x, screenSize.height, color);
+		if (y == -1) {
+			return null;
+		}
+		if (detector == null) {
+			setDetector(button, TemplateButtonDetector.capture(bot, screen, x, y, CAPTURED_TEMPLATE_SIZE));
+		}
+		return new Point(x, y);
+	}
+	
+	private synchronized TemplateButtonDetector getDetector(int button) {
+		return detectors[button];
+	}
+	
+	private synchronized void setDetector(int button, TemplateButtonDetector detector) {
+		detectors[button] = detector;
+	}
+	
+	private void loadButtonDetectors() {
+		BufferedImage scanTemplate = loadTemplate(SENSE_TEMPLATE_SCAN);
+		BufferedImage stopTemplate = loadTemplate(SENSE_TEMPLATE_STOP);
+		if (scanTemplate != null) {
+			setDetector(BUTTON_SCAN, new TemplateButtonDetector(scanTemplate));
+		}
+		if (stopTemplate != null) {
+			setDetector(BUTTON_STOP, new TemplateButtonDetector(stopTemplate));
+		}
+	}
+	
+	private BufferedImage loadTemplate(String path) {
+		try {
+			return getClass().getResource(path) != null ? ImageIO.read(getClass().getResource(path)) : null;
+		} catch (Exception e) {
+			System.out.println("Failed to load template " + path + ".");
+			return null;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package at.fhhgb.scanner;
+
+import java.util.Arrays;
+
+/// An event sent by the scan server on the brick while a scan runs, see BrickScanClient.
+public class ScanEvent {
+	
+	public enum Type {
+		COUNTDOWN, STARTED, PROGRESS, DONE, STOPPED
+	}
+	
+	private final Type type;
+	private final long values[];
+	private final long receiveTime;
+	
+	public ScanEvent(Type type, long values[], long receiveTime) {
+		this.type = type;
+		this.values = Arrays.copyOf(values, values.length);
+		this.receiveTime = receiveTime;
+	}
+	
+	/// Parses an event line without the EVENT prefix, e.g. "PROGRESS 360 1000 53000". Returns null if the line is invalid.
+	public static ScanEvent parse(String line, long receiveTime) {
+		String parts[] = line.trim().split(" +");
+		try {
+			Type type = Type.valueOf(parts[0]);
+			long values[] = new long[parts.length - 1];
+			for (int i=0; i<values.length; i++) {
+				values[i] = Long.parseLong(parts[i + 1]);
+			}
+			return new ScanEvent(type, values, receiveTime);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+	
+	public Type getType() {
+		return type;
+	}
+	
+	/// Returns the value at the given index or -1 if the event has no such value.
+	/**
+	 * COUNTDOWN: seconds. STARTED: duration. PROGRESS: tacho, elapsed, duration.
+	 * DONE and STOPPED: tacho, elapsed. Times are in ms.
+	 */
+	public long getValue(int index) {
+		return index < values.length ? values[index] : -1;
+	}
+	
+	/// Returns the System.nanoTime() at which the event was received.
+	public long getReceiveTime() {
+		return receiveTime;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(type.toString());
+		for (long value : values) {
+			builder.append(' ').append(value);
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,119 @@
+package at.fhhgb.scanner;
+
+/// Timeline of a session of back-to-back scans: how many subjects were scanned per hour and how long the ring stood still in each phase.
+/**
+ * Between two scans the ring passes through the phases in this order: the
+ * wind-down of the previous scan, the rest of the countdown and the start of
+ * the motors. The wind-down runs during the countdown of the next subject, so
+ * a long wind-down shortens the remaining countdown instead of adding to it.
+ * Only SCAN is time the ring is busy, all other phases are idle time. An
+ * odd number of scans ends at the far end, the RETURN phase drives back.
+ */
+public class ScanSession {
+	
+	public enum Phase {
+		/// Settling and measuring the stop position of the previous scan, overlapped with the countdown.
+		WIND_DOWN,
+		/// Rest of the countdown until the Sense capture runs and the motors are due.
+		COUNTDOWN,
+		/// From the deadline until the start commands reached the motors.
+		START,
+		/// Motors running, the only phase that is not idle.
+		SCAN,
+		/// Driving back to the start position after an odd number of scans, once per session.
+		RETURN
+	}
+	
+	private final int subjects;
+	private final LatencyRecorder phases[] = new LatencyRecorder[Phase.values().length];
+	private long startTime = -1;
+	private long endTime = -1;
+	private int completed = 0;
+	private int forward = 0;
+	private int backward = 0;
+	
+	public ScanSession(int subjects) {
+		this.subjects = subjects;
+		for (int i=0; i<phases.length; i++) {
+			phases[i] = new LatencyRecorder();
+		}
+	}
+	
+	/// Marks the start of the session at the given System.nanoTime().
+	public synchronized void start(long time) {
+		startTime = time;
+	}
+	
+	/// Marks the end of the session at the given System.nanoTime().
+	public synchronized void finish(long time) {
+		endTime = time;
+	}
+	
+	/// Records the time in ns one subject (or the session for RETURN) spent in the phase.
+	public void record(Phase phase, long nanos) {
+		phases[phase.ordinal()].record(Math.max(0, nanos));
+	}
+	
+	public synchronized void scanCompleted(boolean forward) {
+		completed++;
+		if (forward) {
+			this.forward++;
+		}
+		else {
+			backward++;
+		}
+	}
+	
+	public int getSubjects() {
+		return subjects;
+	}
+	
+	public synchronized int getCompleted() {
+		return completed;
+	}
+	
+	public synchronized boolean isFinished() {
+		return endTime >= 0;
+	}
+	
+	/// Returns the time in ns since the start, up to the end once the session finished.
+	public synchronized long getElapsed() {
+		if (startTime < 0) {
+			return 0;
+		}
+		return (endTime >= 0 ? endTime : System.nanoTime()) - startTime;
+	}
+	
+	public synchronized double getScansPerHour() {
+		long elapsed = getElapsed();
+		return elapsed > 0 ? completed * 3600e9 / elapsed : 0;
+	}
+	
+	/// Returns the durations recorded for the phase, one per subject.
+	public LatencyRecorder getPhase(Phase phase) {
+		return phases[phase.ordinal()];
+	}
+	
+	/// Returns the total time in ns the ring stood still, i.e. all phases but SCAN.
+	public long getIdle() {
+		long idle = 0;
+		for (Phase phase : Phase.values()) {
+			if (phase != Phase.SCAN) {
+				idle += getPhase(phase).getTotal();
+			}
+		}
+		return idle;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("Session: %d of %d subjects (%d forward, %d backward) in %.1f s, %.1f scans/h, idle %.1f s",
+				completed, subjects, forward, backward, getElapsed() / 1e9, getScansPerHour(), getIdle() / 1e9));
+		for (Phase phase : Phase.values()) {
+			LatencyRecorder recorder = getPhase(phase);
+			builder.append(String.format("%n  %s: total %.2f s, mean %.2f ms, %s", phase, recorder.getTotal() / 1e9, Math.max(0, recorder.getMean()) / 1e6, recorder));
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,19 @@
+package at.fhhgb.scanner;
+
+/// The capture software (Sense) started and stopped by the ScannerController. Implemented by RobotScanSoftware with mouse clicks and by SocketScanSoftware with a command channel.
+public interface ScanSoftware {
+	
+	/// Returns true if the capture software is available.
+	public boolean isRunning();
+	
+	/// Does the slow part of startCapture() ahead of time, e.g. finding the capture software and its buttons.
+	public void prepare();
+	
+	/// Starts the capture. Returns false if the capture could not be triggered.
+	public boolean startCapture();
+	
+	/// Stops the capture. Returns false if the capture could not be triggered.
+	public boolean stopCapture();
+	
+	public void close();
+}
@@ -0,0 +1,151 @@
+package at.fhhgb.scanner;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.zip.GZIPInputStream;
+
+/// Motor samples recorded by the Scanner program on the brick during a scan, fetched in one compressed upload after the scan.
+/**
+ * Reads the format written by TachoRecorder of the ScannerEV3 project: a GZIP
+ * stream with a header followed by the sample times, the tacho counts and the
+ * rotation speeds, each column as big-endian ints and times and tacho counts
+ * as deltas. Times are in microseconds after the planned start of the motors.
+ */
+public class ScanTelemetry {
+	
+	public static final int DEFAULT_PORT = 5580;
+	public static final int MAGIC = 0x54414348;
+	public static final int VERSION = 1;
+	
+	private final int interval;
+	private final int overflow;
+	private final int times[];
+	private final int tachos[][];
+	private final int speeds[][];
+	
+	private ScanTelemetry(int interval, int overflow, int times[], int tachos[][], int speeds[][]) {
+		this.interval = interval;
+		this.overflow = overflow;
+		this.times = times;
+		this.tachos = tachos;
+		this.speeds = speeds;
+	}
+	
+	/// Connects to the brick, which offers the samples for a while after each scan, and reads them.
+	public static ScanTelemetry fetch(String host, int port, int timeout) throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), timeout);
+			socket.setSoTimeout(timeout);
+			return read(socket.getInputStream());
+		} finally {
+			socket.close();
+		}
+	}
+	
+	/// Reads the samples from the stream, e.g. a file copied from the brick.
+	public static ScanTelemetry read(InputStream stream) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(stream, 8192), 8192));
+		if (input.readInt() != MAGIC || input.readByte() != VERSION) {
+			throw new IOException("Not a telemetry stream");
+		}
+		int motors = input.readInt();
+		int samples = input.readInt();
+		int interval = input.readInt();
+		int overflow = input.readInt();
+		if (motors < 0 || samples < 0) {
+			throw new IOException("Invalid telemetry header");
+		}
+		
+		int times[] = new int[samples];
+		int previous = 0;
+		for (int i=0; i<samples; i++) {
+			previous += input.readInt();
+			times[i] = previous;
+		}
+		int tachos[][] = new int[motors][samples];
+		for (int m=0; m<motors; m++) {
+			previous = 0;
+			for (int i=0; i<samples; i++) {
+				previous += input.readInt();
+				tachos[m][i] = previous;
+			}
+		}
+		int speeds[][] = new int[motors][samples];
+		for (int m=0; m<motors; m++) {
+			for (int i=0; i<samples; i++) {
+				speeds[m][i] = input.readInt();
+			}
+		}
+		return new ScanTelemetry(interval, overflow, times, tachos, speeds);
+	}
+	
+	public int getMotorCount() {
+		return tachos.length;
+	}
+	
+	public int getSampleCount() {
+		return times.length;
+	}
+	
+	/// Returns the planned interval between samples in microseconds.
+	public int getInterval() {
+		return interval;
+	}
+	
+	/// Returns the number of samples the brick could not keep because its buffer was full.
+	public int getOverflow() {
+		return overflow;
+	}
+	
+	/// Returns the time of the sample in microseconds after the planned motor start.
+	public int getTime(int sample) {
+		return times[sample];
+	}
+	
+	public int getTachoCount(int motor, int sample) {
+		return tachos[motor][sample];
+	}
+	
+	/// Returns the rotation speed in degrees per second.
+	public int getRotationSpeed(int motor, int sample) {
+		return speeds[motor][sample];
+	}
+	
+	/// Returns the largest gap between two samples in microseconds, i.e. how late the sampling was at worst.
+	public int getMaxGap() {
+		int gap = 0;
+		for (int i=1; i<times.length; i++) {
+			gap = Math.max(gap, times[i] - times[i - 1]);
+		}
+		return gap;
+	}
+	
+	/// Writes one line per sample with the time in microseconds and tacho count and rotation speed of each motor.
+	public void writeCsv(Writer writer) throws IOException {
+		StringBuilder line = new StringBuilder("time");
+		for (int m=0; m<tachos.length; m++) {
+			line.append(";tacho").append(m).append(";speed").append(m);
+		}
+		writer.write(line.append('\n').toString());
+		for (int i=0; i<times.length; i++) {
+			line.setLength(0);
+			line.append(times[i]);
+			for (int m=0; m<tachos.length; m++) {
+				line.append(';').append(tachos[m][i]).append(';').append(speeds[m][i]);
+			}
+			writer.write(line.append('\n').toString());
+		}
+		writer.flush();
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("samples=%d motors=%d interval=%.2fms maxGap=%.2fms lost=%d", getSampleCount(), getMotorCount(), interval / 1e3, getMaxGap() / 1e3, overflow);
+	}
+}
@@ -1,18 +1,97 @@
 package at.fhhgb.scanner;
 
-public class ScannerApp {
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
 
+public class ScannerApp {
+	
+	private static final int TELEMETRY_TIMEOUT = 5000;
+	
 	public static void main(String[] args) {
-		new ScannerApp().start();
+		boolean simulate = false;
+		boolean binary = false;
+		String scanSoftwareAddress = null;
+		String telemetryHost = null;
+		String telemetryFile = null;
+		for (int i=0; i<args.length; i++) {
+			if ("--simulate".equals(args[i])) {
+				simulate = true;
+			}
+			else if ("--binary".equals(args[i])) {
+				binary = true;
+			}
+			else if ("--capture".equals(args[i]) && i + 1 < args.length) {
+				scanSoftwareAddress = args[++i];
+			}
+			else if ("--telemetry".equals(args[i]) && i + 2 < args.length) {
+				telemetryHost = args[++i];
+				telemetryFile = args[++i];
+			}
+		}
+		
+		if (telemetryHost != null) {
+			//Fetch the samples of the last scan the brick recorded instead of starting the window
+			fetchTelemetry(telemetryHost, telemetryFile);
+			return;
+		}
+		
+		if (simulate && scanSoftwareAddress == null) {
+			//Capture on the loopback stand-in instead of clicking in Sense
+			try {
+				SimulatedCaptureServer captureServer = new SimulatedCaptureServer();
+				captureServer.start(0);
+				scanSoftwareAddress = "localhost:" + captureServer.getPort();
+			} catch (IOException e) {
+				System.out.println("Failed to start simulated capture server.");
+			}
+		}
+		
+		BrickFactory brickFactory = simulate ? new SimulatedBrick().getFactory() : RemoteBrick.FACTORY;
+		if (binary && simulate) {
+			//Talk to the simulated brick through the binary protocol on the loopback interface
+			try {
+				final BinaryBrickServer brickServer = new BinaryBrickServer(new SimulatedBrick());
+				brickServer.start(0);
+				brickFactory = new BrickFactory() {
+					@Override
+					public Brick connect(String ip) throws RemoteException {
+						return new BinaryBrick("localhost", brickServer.getPort());
+					}
+				};
+			} catch (IOException e) {
+				System.out.println("Failed to start simulated brick server.");
+			}
+		}
+		else if (binary) {
+			brickFactory = BinaryBrick.FACTORY;
+		}
+		new ScannerApp().start(brickFactory, scanSoftwareAddress);
+	}
+	
+	private static void fetchTelemetry(String host, String file) {
+		try {
+			ScanTelemetry telemetry = ScanTelemetry.fetch(host, ScanTelemetry.DEFAULT_PORT, TELEMETRY_TIMEOUT);
+			try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+				telemetry.writeCsv(writer);
+			}
+			System.out.println("Telemetry: " + telemetry);
+		} catch (IOException e) {
+			System.out.println("Failed to fetch telemetry: " + e.getMessage());
+		}
 	}
 	
-	private void start() {
+	private void start(BrickFactory brickFactory, String scanSoftwareAddress) {
 		ScannerConfiguration configuration = new ScannerConfiguration();
+		configuration.setScanSoftwareAddress(scanSoftwareAddress);
 		ScannerObservable scannerObservable = new ScannerObservable(configuration);
-		ScannerController controller = new ScannerController(scannerObservable);
+		ScannerController controller = new ScannerController(scannerObservable, brickFactory);
 		ScannerWindow window = new ScannerWindow(controller);
 		window.setVisible(true);
 		window.setLocationRelativeTo(null);
 		controller.onConnectBrick();
 	}
-}
\ No newline at end of file
+}
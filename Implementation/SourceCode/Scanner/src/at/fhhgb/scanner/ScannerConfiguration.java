@@ -16,6 +16,15 @@ public class ScannerConfiguration {
 	/// The default offset factor (percentage) that should be added to the ring distance to ensure light overlapping from start and end of the scanning process.
 	public static final double DEFAULT_DISTANCE_OFFSET  = 0.0188679;
 	
+	/// The default offset factor for position controlled scans. Smaller, since the scan ends at the measured ring position instead of after an estimated time.
+	public static final double DEFAULT_POSITION_DISTANCE_OFFSET = 0.0047170;
+	
+	/// The distance in 'lego unit' the ring moves per degree of motor rotation (speed in degrees per second times ms).
+	public static final int DISTANCE_PER_DEGREE         = 1000;
+	
+	/// Default value indicating if the scan ends at the ring position measured with the motor tachometers instead of after the estimated time.
+	public static final boolean DEFAULT_POSITION_CONTROLLED = true;
+	
 	/// Minimal motor speed in 'lego unit' possible with leJOS.
 	public static final int MIN_SPEED                   = 100;
 	
@@ -43,24 +52,53 @@ public class ScannerConfiguration {
 	/// Valid motor ports on the brick.
 	public static final String MOTOR_PORTS[]            = new String[] { "A", "B", "C", "D" };
 	
+	/// Default executable name of the Sense scanning software.
+	public static final String DEFAULT_SENSE_PROCESS_NAME = "Sense.exe";
+	
+	/// Default address (host:port) of the command channel of the capture software. null clicks the buttons in Sense instead.
+	public static final String DEFAULT_SCAN_SOFTWARE_ADDRESS = null;
+	
+	/// Default interval in ms between two heartbeats checking the connection to the brick. 0 disables the heartbeat.
+	public static final int DEFAULT_HEARTBEAT_INTERVAL  = 1000;
+	
+	/// Default time in ms without an answer to a heartbeat after which the brick counts as lost.
+	public static final int DEFAULT_HEARTBEAT_TIMEOUT   = 3000;
+	
+	/// Default rate in frames per second at which the window shows the scanner state. 0 updates the window on every state change.
+	public static final int DEFAULT_DISPLAY_RATE        = 30;
+	
+	/// Maximum display rate in frames per second.
+	public static final int MAX_DISPLAY_RATE            = 120;
+	
 	private int scanDistance;
 	private double scanDistanceOffset;
+	private boolean positionControlled;
 	private int speedScanForward;
 	private int speedScanBackward;
 	private int speedManual;
 	private boolean shouldGoBack;
 	private String ip;
 	private String portsMotors[];
+	private int displayRate;
+	private String senseProcessName;
+	private String scanSoftwareAddress;
+	private int heartbeatInterval;
+	private int heartbeatTimeout;
 	
 	public ScannerConfiguration() {
 		setScanDistance(RING_DISTANCE);
-		setScanDistanceOffset(DEFAULT_DISTANCE_OFFSET);
+		setPositionControlled(DEFAULT_POSITION_CONTROLLED);
 		setSpeedScanForward(DEFAULT_SPEED_SCAN_FORWARD);
 		setSpeedScanBackward(DEFAULT_SPEED_SCAN_BACKWARD);
 		setSpeedManual(DEFAULT_SPEED_MANUAL);
 		setShouldGoBack(DEFAULT_GO_BACK);
 		setIp(DEFAULT_IP);
 		setPortsMotors(DEFAULT_PORTS_MOTORS);
+		setDisplayRate(DEFAULT_DISPLAY_RATE);
+		setSenseProcessName(DEFAULT_SENSE_PROCESS_NAME);
+		setScanSoftwareAddress(DEFAULT_SCAN_SOFTWARE_ADDRESS);
+		setHeartbeatInterval(DEFAULT_HEARTBEAT_INTERVAL);
+		setHeartbeatTimeout(DEFAULT_HEARTBEAT_TIMEOUT);
 	}
 
 	public int getScanDistance() {
@@ -71,6 +109,11 @@ public class ScannerConfiguration {
 		return (int)(scanDistance + scanDistance * getScanDistanceOffset());
 	}
 
+	/// Returns the motor position in degrees at which a scan ends.
+	public int getScanPositionWithOffset() {
+		return getScanDistanceWithOffset() / DISTANCE_PER_DEGREE;
+	}
+
 	private void setScanDistance(int scanDistance) {
 		this.scanDistance = scanDistance;
 	}
@@ -86,6 +129,16 @@ public class ScannerConfiguration {
 		this.scanDistanceOffset = scanDistanceOffset;
 	}
 
+	public boolean isPositionControlled() {
+		return positionControlled;
+	}
+
+	/// Also selects the default distance offset of the mode, a custom offset has to be set afterwards.
+	public void setPositionControlled(boolean positionControlled) {
+		this.positionControlled = positionControlled;
+		setScanDistanceOffset(positionControlled ? DEFAULT_POSITION_DISTANCE_OFFSET : DEFAULT_DISTANCE_OFFSET);
+	}
+
 	public int getSpeedScanForward() {
 		return speedScanForward;
 	}
@@ -153,6 +206,59 @@ public class ScannerConfiguration {
 		validPorts.toArray(this.portsMotors);
 	}
 
+	public int getDisplayRate() {
+		return displayRate;
+	}
+
+	public void setDisplayRate(int displayRate) {
+		if (displayRate < 0) {
+			displayRate = 0;
+		}
+		if (displayRate > MAX_DISPLAY_RATE) {
+			displayRate = MAX_DISPLAY_RATE;
+		}
+		this.displayRate = displayRate;
+	}
+
+	public String getSenseProcessName() {
+		return senseProcessName;
+	}
+
+	public void setSenseProcessName(String senseProcessName) {
+		this.senseProcessName = senseProcessName;
+	}
+
+	public String getScanSoftwareAddress() {
+		return scanSoftwareAddress;
+	}
+
+	public void setScanSoftwareAddress(String scanSoftwareAddress) {
+		if (scanSoftwareAddress != null && scanSoftwareAddress.trim().isEmpty()) {
+			scanSoftwareAddress = null;
+		}
+		this.scanSoftwareAddress = scanSoftwareAddress;
+	}
+
+	public int getHeartbeatInterval() {
+		return heartbeatInterval;
+	}
+
+	public void setHeartbeatInterval(int heartbeatInterval) {
+		if (heartbeatInterval < 0) {
+			heartbeatInterval = 0;
+		}
+		this.heartbeatInterval = heartbeatInterval;
+	}
+
+	/// Returns the heartbeat timeout, at least one heartbeat interval.
+	public int getHeartbeatTimeout() {
+		return Math.max(heartbeatTimeout, heartbeatInterval);
+	}
+
+	public void setHeartbeatTimeout(int heartbeatTimeout) {
+		this.heartbeatTimeout = heartbeatTimeout;
+	}
+
 	private int correctSpeed(int speed) {
 		if (speed > MAX_SPEED ) {
 			speed = MAX_SPEED;
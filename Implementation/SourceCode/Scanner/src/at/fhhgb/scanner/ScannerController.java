@@ -1,71 +1,142 @@
 package at.fhhgb.scanner;
 
-import java.awt.AWTException;
-import java.awt.Color;
-import java.awt.Dimension;
-import java.awt.MouseInfo;
-import java.awt.Point;
-import java.awt.Rectangle;
-import java.awt.Robot;
-import java.awt.Toolkit;
-import java.awt.event.InputEvent;
-import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.swing.JFrame;
 import lejos.hardware.Audio;
 import lejos.hardware.DeviceException;
 import lejos.hardware.Power;
 import lejos.remote.ev3.RMIRegulatedMotor;
-import lejos.remote.ev3.RemoteEV3;
 
 public class ScannerController {
 	
-	private static final int ATTEMPTS_MOUSE_MOVE = 10;
-	private static final Color SENSE_COLOR_ACTIVE = new Color(0, 174, 240);
-	private static final Color SENSE_COLOR_DEFAULT = new Color(106, 106, 106);
+	private static final int AUDIO_QUEUE_CAPACITY = 16;
 	
-	private static final int DELAY_BATTERY_STATUS = 5000;
+	//Time in ms a sound may start late, countdown beeps are useless once the next one is due
+	private static final int MAX_DELAY_COUNTDOWN_BEEP = 500;
+	private static final int MAX_DELAY_STATUS_BEEP = 2000;
+	private static final int SCHEDULER_CLOSE_TIMEOUT = 2000;
+	private static final int RECONNECT_INITIAL_DELAY = 250;
+	private static final int RECONNECT_MAX_DELAY = 10000;
 	
 	private static final int DELAY_SENSE_SCAN = 3500;
+	private static final long SPIN_BEFORE_DEADLINE = 2000000;
 	private static final int PROGRESS_UPDATE_RATE = 30;
+	private static final int DELAY_POSITION_SETTLE = 200;
+	private static final int MAX_POSITION_CORRECTION = 90;
+	
+	//State of the Sense capture during a countdown
+	private static final int CAPTURE_PENDING = 0;
+	private static final int CAPTURE_STARTED = 1;
+	private static final int CAPTURE_ABORTED = 2;
+	private static final int CAPTURE_STOPPED = 3;
 	
 	private ScannerObservable scannerObservable = null;
 	private ScannerConfiguration configuration = null;
 	
-	private RemoteEV3 brick = null;
-	private Thread connectionThread = null;
-	private boolean brickConnected = false;
-	private boolean brickConnecting = false;
+	private BrickFactory brickFactory = null;
+	private volatile Brick brick = null;
+	
+	//Handles of the brick resources, each with its own lock so audio and power never wait for each other
+	private final Object audioLock = new Object();
+	private final Object powerLock = new Object();
+	private volatile Audio audio = null;
+	private volatile Power power = null;
+	private volatile boolean brickConnected = false;
+	private volatile boolean brickConnecting = false;
+	private volatile boolean closing = false;
+	
+	//Automatic reconnect after the connection was lost, guarded by this
+	private Backoff reconnectBackoff = new Backoff(RECONNECT_INITIAL_DELAY, RECONNECT_MAX_DELAY);
+	private ScheduledFuture<?> reconnectTask = null;
+	private long connectionLostTime = -1;
 	
-	private ArrayList<RMIRegulatedMotor> motors = null;
-	private boolean isScanRunning = false;
-	private boolean canStopSense = false;
+	private volatile MotorGroup motors = null;
+	private int positionCorrection = 0;
+	private volatile boolean isScanRunning = false;
+	private volatile boolean canStopSense = false;
+	//Capture of the scan in its countdown, null once canStopSense takes over
+	private volatile AtomicInteger capture = null;
+	private ScanSoftware scanSoftware = null;
 	
-	private Thread scannerThread = null;
+	//Back-to-back scans, a session starts and ends with the ring at its start position
+	private volatile ScanSession session = null;
 	
-	private Thread batteryStatusThread = null;
-	private boolean batteryStatusThreadRunning = false;
+	private EmergencyStop emergencyStop = null;
 	
-	private Thread audioThread = null;
-	private BlockingQueue<Runnable> audioQueue = null;
-	private boolean audioQueueRunning = false;
+	//All background work except the emergency stop and the motor commands runs in these lanes
+	private TaskScheduler scheduler = null;
+	private TaskLane connectionLane = null;
+	private TaskLane scanLane = null;
+	private TaskLane senseLane = null;
+	private TaskLane audioLane = null;
+	private AudioDispatcher audioDispatcher = null;
+	private TaskLane batteryLane = null;
+	private volatile ScheduledFuture<?> batteryStatusTask = null;
+	private volatile boolean batteryPolling = false;
+	//Counts the polling chains, a task of an earlier chain that already fired ends instead of rescheduling
+	private volatile int batteryGeneration = 0;
+	private BatteryTelemetry batteryTelemetry = new BatteryTelemetry();
+	
+	private TaskLane heartbeatLane = null;
+	private TaskLane motorSetupLane = null;
+	private volatile Heartbeat heartbeat = null;
 	
 	@SuppressWarnings("unused")
 	private JFrame window = null;
 	
 	public ScannerController(ScannerObservable scannerObservable) {
+		this(scannerObservable, RemoteBrick.FACTORY);
+	}
+	
+	public ScannerController(ScannerObservable scannerObservable, BrickFactory brickFactory) {
+		this(scannerObservable, brickFactory, createScanSoftware(scannerObservable.getConfiguration()));
+	}
+	
+	public ScannerController(ScannerObservable scannerObservable, BrickFactory brickFactory, ScanSoftware scanSoftware) {
 		this.scannerObservable = scannerObservable;
+		this.brickFactory = brickFactory;
 		this.configuration = scannerObservable.getConfiguration();
-		this.audioQueue = new LinkedBlockingQueue<>();
+		this.scanSoftware = scanSoftware;
+		this.scheduler = new TaskScheduler("Scanner");
+		this.connectionLane = scheduler.createLane("connection", 1, 1, Thread.NORM_PRIORITY);
+		this.scanLane = scheduler.createLane("scan", 1, 1, Thread.NORM_PRIORITY);
+		this.senseLane = scheduler.createLane("sense", 2, 4, Thread.NORM_PRIORITY);
+		//The dispatcher queues the sounds, the lane only holds its drain task and the warm-up call
+		this.audioLane = scheduler.createLane("audio", 1, 2, Thread.NORM_PRIORITY);
+		this.audioDispatcher = new AudioDispatcher(audioLane, new AudioDispatcher.Output() {
+			public boolean play(int code, long deadline) throws InterruptedException {
+				return playSystemSound(code, deadline);
+			}
+		}, AUDIO_QUEUE_CAPACITY);
+		this.batteryLane = scheduler.createLane("battery", 1, 1, Thread.MIN_PRIORITY);
+		this.heartbeatLane = scheduler.createLane("heartbeat", 2, 1, Thread.NORM_PRIORITY);
+		//One thread per motor and one each for the audio and power handles
+		this.motorSetupLane = scheduler.createLane("motor setup", ScannerConfiguration.MOTOR_PORTS.length + 2, ScannerConfiguration.MOTOR_PORTS.length + 2, Thread.NORM_PRIORITY);
+		this.emergencyStop = new EmergencyStop(new Runnable() {
+			public void run() {
+				stopMotors();
+			}
+		});
+	}
+	
+	//Uses the command channel if an address is configured, otherwise clicks in Sense
+	private static ScanSoftware createScanSoftware(ScannerConfiguration configuration) {
+		if (configuration.getScanSoftwareAddress() != null) {
+			return SocketScanSoftware.fromAddress(configuration.getScanSoftwareAddress());
+		}
+		return new RobotScanSoftware(configuration.getSenseProcessName());
 	}
 	
 	public void setWindow(JFrame window) {
@@ -77,57 +148,277 @@ public class ScannerController {
 	}
 	
 	public void onConnectBrick() {
-		if (!brickConnecting) {
-			brickConnecting = true;
-			connectionThread = new Thread() {
+		//A manual retry starts over without waiting for the backoff
+		synchronized (this) {
+			if (reconnectTask != null) {
+				reconnectTask.cancel(false);
+				reconnectTask = null;
+			}
+			reconnectBackoff.reset();
+		}
+		if (beginConnecting()) {
+			boolean queued = connectionLane.execute(new Runnable() {
+				public void run() {
+					connect();
+				}
+			});
+			if (!queued) {
+				brickConnecting = false;
+			}
+		}
+	}
+	
+	private synchronized boolean beginConnecting() {
+		if (brickConnecting || closing) {
+			return false;
+		}
+		brickConnecting = true;
+		return true;
+	}
+	
+	//Runs in the connection lane with brickConnecting set
+	private void connect() {
+		long start = System.nanoTime();
+		long brickDuration = 0;
+		long motorsDuration = 0;
+		long warmUpDuration = 0;
+		boolean reused = false;
+		try {
+			System.out.println("Connecting...");
+			scannerObservable.setConnecting(brickConnecting);
+			prepareSense();
+			stopHeartbeat();
+			
+			//After a Wi-Fi drop the brick still holds the motors, so the old handles work again once it answers
+			long phaseStart = System.nanoTime();
+			reused = reuseConnection();
+			if (!reused) {
+				//Create brick connection
+				Brick brick = brickFactory.connect(configuration.getIp());
+				brickDuration = System.nanoTime() - phaseStart;
+				
+				//Close motors of the lost connection, otherwise their ports stay in use
+				closeMotors();
+				Brick oldBrick = this.brick;
+				this.brick = brick;
+				releaseResources();
+				if (oldBrick != null && oldBrick != brick) {
+					oldBrick.close();
+				}
+				
+				//Get motors, the audio and power handles are looked up at the same time
+				phaseStart = System.nanoTime();
+				List<Future<?>> resources = acquireResources();
+				motors = new MotorGroup(acquireMotors(brick));
+				awaitResources(resources);
+				motorsDuration = System.nanoTime() - phaseStart;
+			}
+			else {
+				brickDuration = System.nanoTime() - phaseStart;
+			}
+			
+			//First calls on fresh stubs are slow, make them now instead of at the start of a scan
+			phaseStart = System.nanoTime();
+			warmUp();
+			warmUpDuration = System.nanoTime() - phaseStart;
+			
+			//Start fetching battery status
+			fetchBatteryStatus();
+			
+			brickConnected = true;
+			startHeartbeat();
+		} catch (DeviceException e) {
+			System.out.println("Ports in use, reset brick.");
+			brickConnected = false;
+			scannerObservable.setShouldResetBrick(true);
+			synchronized (this) {
+				//Resetting the brick needs the operator, retrying does not help
+				connectionLostTime = -1;
+			}
+		} catch (RemoteException e) {
+			brickConnected = false;
+		} catch (MalformedURLException e) {
+			brickConnected = false;
+		} catch (NotBoundException e) {
+			brickConnected = false;
+		} catch (RuntimeException e) {
+			//Failures of remote calls on leJOS proxies, e.g. PortException
+			System.out.println("Connecting failed: " + e.getMessage());
+			brickConnected = false;
+		} finally {
+			brickConnecting = false;
+			if (Thread.interrupted()) {
+				System.out.println("Connecting interrupted, going to close.");
+				disconnect();
+			}
+			else {
+				scannerObservable.setConnecting(brickConnecting);
+				scannerObservable.setConnected(brickConnected);
+			}
+		}
+		
+		if (brickConnected) {
+			long lostTime;
+			synchronized (this) {
+				lostTime = connectionLostTime;
+				connectionLostTime = -1;
+				reconnectBackoff.reset();
+			}
+			System.out.println("Connected successfully (" + toMillis(System.nanoTime() - start) + " ms, motors " + (reused ? "reused" : "acquired") + ").");
+			System.out.println("Connect: " + (reused ? "check connection " : "brick ") + toMillis(brickDuration) + " ms"
+					+ ", motors and handles " + toMillis(motorsDuration) + " ms"
+					+ ", warm-up " + toMillis(warmUpDuration) + " ms.");
+			if (lostTime >= 0) {
+				System.out.println("Reconnected " + toMillis(System.nanoTime() - lostTime) + " ms after the connection was lost.");
+			}
+		}
+		else {
+			scheduleReconnect();
+		}
+	}
+	
+	//Returns true if the brick answers and the motors of the last connection still work
+	private boolean reuseConnection() {
+		MotorGroup motors = this.motors;
+		Brick brick = this.brick;
+		if (brick == null || motors == null || motors.isClosed()) {
+			return false;
+		}
+		try {
+			brick.ping();
+			motors.getTachoCount();
+			return true;
+		} catch (RemoteException e) {
+			return false;
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+	
+	//Creates all motors at the same time. If one fails, the others are closed again so their ports stay free.
+	private List<RMIRegulatedMotor> acquireMotors(final Brick brick) throws RemoteException {
+		List<Future<RMIRegulatedMotor>> results = new ArrayList<>(configuration.getMotorsCount());
+		for (final String motorPort : configuration.getPortsMotors()) {
+			results.add(motorSetupLane.submit(new Callable<RMIRegulatedMotor>() {
+				public RMIRegulatedMotor call() {
+					return brick.createRegulatedMotor(motorPort, 'L');
+				}
+			}));
+		}
+		
+		List<RMIRegulatedMotor> motorList = new ArrayList<>(results.size());
+		RuntimeException error = null;
+		for (Future<RMIRegulatedMotor> result : results) {
+			try {
+				motorList.add(result.get());
+			} catch (ExecutionException e) {
+				if (error == null || e.getCause() instanceof DeviceException) {
+					error = e.getCause() instanceof RuntimeException ? (RuntimeException)e.getCause() : new IllegalStateException(e.getCause());
+				}
+			} catch (CancellationException e) {
+				error = new IllegalStateException("Motor setup rejected.");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				error = new IllegalStateException("Motor setup interrupted.");
+			}
+		}
+		if (error != null) {
+			for (RMIRegulatedMotor motor : motorList) {
+				try {
+					motor.close();
+				} catch (RemoteException e) {
+				}
+			}
+			throw error;
+		}
+		return motorList;
+	}
+	
+	//Looks up the audio and power handles in the motor setup lane, failures are ignored as the handles are looked up again on use
+	private List<Future<?>> acquireResources() {
+		List<Future<?>> resources = new ArrayList<>(2);
+		resources.add(motorSetupLane.submit(new Callable<Audio>() {
+			public Audio call() {
+				return getAudio();
+			}
+		}));
+		resources.add(motorSetupLane.submit(new Callable<Power>() {
+			public Power call() {
+				return getPower();
+			}
+		}));
+		return resources;
+	}
+	
+	private void awaitResources(List<Future<?>> resources) {
+		for (Future<?> resource : resources) {
+			try {
+				resource.get();
+			} catch (ExecutionException e) {
+				System.out.println("Failed to get brick handle: " + e.getCause());
+			} catch (CancellationException e) {
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+	
+	//Makes a dummy call on each stub, the motors are stopped and get the scan speed cached
+	private void warmUp() throws RemoteException {
+		synchronized(motors) {
+			motors.warmUp(configuration.getSpeedScanForward());
+		}
+		final Audio audio = getAudio();
+		if (audio != null) {
+			//Not waited for, the audio stub is not needed before the first scan
+			audioLane.execute(new Runnable() {
 				public void run() {
 					try {
-						System.out.println("Connecting...");
-						scannerObservable.setConnecting(brickConnecting);
-						closeMotors();
-						
-						//Create brick connection
-						brick = new RemoteEV3(configuration.getIp());
-						brick.setDefault();
-						
-						//Get motors
-						motors = new ArrayList<>(configuration.getMotorsCount());
-						for(String motorPort : configuration.getPortsMotors()) {
-							motors.add(brick.createRegulatedMotor(motorPort, 'L'));
-						}
-						
-						//Start fetching battery status
-						fetchBatteryStatus();
-						
-						brickConnected = true;
-					} catch (DeviceException e) {
-						System.out.println("Ports in use, reset brick.");
-						brickConnected = false;
-						scannerObservable.setShouldResetBrick(true);
-					} catch (RemoteException e) {
-						brickConnected = false;
-					} catch (MalformedURLException e) {
-						brickConnected = false;
-					} catch (NotBoundException e) {
-						brickConnected = false;
-					} finally {
-						brickConnecting = false;
-						if (Thread.interrupted()) {
-							System.out.println("Connecting interrupted, going to close.");
-							close();
-						}
-						else {
-							scannerObservable.setConnecting(brickConnecting);
-							scannerObservable.setConnected(brickConnected);
-						}
-						
-						if (brickConnected) {
-							System.out.println("Connected successfully.");
-						}
+						audio.getVolume();
+					} catch (RuntimeException e) {
+					}
+				}
+			});
+		}
+	}
+	
+	//A remote call failed, keep the motor handles for reuse and reconnect in the background
+	private void connectionLost() {
+		if (!brickConnected) {
+			return;
+		}
+		brickConnected = false;
+		
+		//Best effort, the link may only be slow and the ring must not keep turning unattended
+		emergencyStop.request();
+		stopBatteryStatus();
+		stopHeartbeat();
+		scannerObservable.setConnected(brickConnected);
+		synchronized (this) {
+			if (connectionLostTime < 0) {
+				connectionLostTime = System.nanoTime();
+			}
+		}
+		scheduleReconnect();
+	}
+	
+	private synchronized void scheduleReconnect() {
+		if (closing || connectionLostTime < 0 || (reconnectTask != null && !reconnectTask.isDone())) {
+			return;
+		}
+		long delay = reconnectBackoff.nextDelay();
+		System.out.println("Reconnecting in " + delay + " ms (attempt " + reconnectBackoff.getAttempts() + ").");
+		try {
+			reconnectTask = scheduler.schedule(connectionLane, new Runnable() {
+				public void run() {
+					if (beginConnecting()) {
+						connect();
 					}
 				}
-			};
-			connectionThread.start();
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			//Scheduler closed
 		}
 	}
 	
@@ -140,13 +431,10 @@ public class ScannerController {
 	}
 	
 	public void onStop() {
-		if (scannerThread != null) {
-			scannerThread.interrupt();
-		}
-		if (canStopSense) {
-			stopSense();
-		}
-		stopMotors();
+		//Stop motors first, everything else follows asynchronously
+		emergencyStop.request();
+		scanLane.interrupt();
+		abortCapture();
 	}
 	
 	public void onScan() {
@@ -160,78 +448,14 @@ public class ScannerController {
 		}
 		
 		isScanRunning = true;			
-		scannerThread = new Thread() {
+		boolean queued = scanLane.execute(new Runnable() {
 			public void run() {
 				System.out.println("Scanning started.");
 				
-				//Start sense scan
-				startSense();
-				
-				//Wait for Sense countdown and play sounds to notify scanned person that scan starts soon
-				int millis = 1000;
-				int n = DELAY_SENSE_SCAN / millis;
-				int remainingSleep = DELAY_SENSE_SCAN % millis;
-				for (int i=0; i<n; i++) {
-					try {
-						System.out.print(n-i + " ");
-						playBeep();
-						Thread.sleep(millis + (i == n - 1 ? remainingSleep : 0));
-					} catch (InterruptedException e) {
-						System.out.println();
-						System.out.println("Scan countdown was interrupted.");
-						isScanRunning = false;
-						scannerObservable.setScanning(isScanRunning);
-						//window.setState(Frame.NORMAL);
-						return;
-					}
-				}
-				
-				//window.setState(Frame.NORMAL);
-				System.out.println();				
-				canStopSense = true;
-				
-				//Start motors
-				startMotors(configuration.getSpeedScanForward(), true);
-				
-				//Calculate sleep time for progress updates
-				int delay = 1000 / PROGRESS_UPDATE_RATE;
-				
-				//Calculate scan duration
-				int scanDuration = configuration.getScanDistanceWithOffset() / configuration.getSpeedScanForward();
-				long startTime = System.currentTimeMillis();
-				scannerObservable.setStartTime(startTime);
-				scannerObservable.setCurrentTime(startTime);
-				scannerObservable.setDuration(scanDuration);
-				scannerObservable.setScanning(isScanRunning);
-				
-				while (true) {
-					long now = System.currentTimeMillis();
-					long timeUntilEnd = startTime + scanDuration - now;
-					
-					//Set progress
-					scannerObservable.setCurrentTime(now);
-					
-					//Stop waiting if scan is complete
-					if (Thread.interrupted()) {
-						System.out.println("Scan was interrupted.");
-						isScanRunning = false;
-						scannerObservable.setScanning(isScanRunning);
-						return;
-					}
-					if (timeUntilEnd <= 0) {
-						break;
-					}
-					else {
-						//Sleep for a while
-						try {
-							Thread.sleep(Math.min(timeUntilEnd + 1, delay));
-						} catch (InterruptedException e) {
-							System.out.println("Scan was interrupted during sleep.");
-							isScanRunning = false;
-							scannerObservable.setScanning(isScanRunning);
-							return;
-						}
-					}
+				if (scan(true, System.nanoTime(), false, null) < 0) {
+					isScanRunning = false;
+					scannerObservable.setScanning(isScanRunning);
+					return;
 				}
 				
 				scannerObservable.setScanning(false);
@@ -239,10 +463,9 @@ public class ScannerController {
 				//Stop sense scan
 				stopSense();
 				
-				//Scan is complete - stop motors
-				stopMotors();
-				
-				
+				if (configuration.isPositionControlled()) {
+					correctPosition(configuration.getScanPositionWithOffset());
+				}
 				
 				//Drive back to starting position				
 				//Wait before driving back
@@ -306,221 +529,571 @@ public class ScannerController {
 				
 				isScanRunning = false;
 			}
-		};
-		scannerThread.start();
+		});
+		if (!queued) {
+			isScanRunning = false;
+		}
 	}
 	
-	public void close() {
-		if (connectionThread != null && connectionThread.isAlive() && brickConnecting) {
-			connectionThread.interrupt();
+	/// Scans the given number of subjects back to back, each scan driving the ring back in the direction the previous one came from.
+	/**
+	 * The countdown of the next subject starts as soon as the motors of the
+	 * previous scan stopped, while Sense stops the previous capture and the
+	 * stop position is measured. The direction alternates, so no drive back is
+	 * needed between the scans. After an odd number of scans the ring drives
+	 * back once at the end, so every session starts forward from the start
+	 * position like a single scan. The stop button ends the whole session.
+	 */
+	public void onSession(final int subjects) {
+		if (!brickConnected) {
+			System.out.println("Failed to start session, brick is not connected.");
+			return;
+		}
+		if (isScanRunning) {
+			System.out.println("Failed to start session, scan already running.");
+			return;
+		}
+		if (subjects < 1) {
+			return;
+		}
+		
+		isScanRunning = true;
+		final ScanSession session = new ScanSession(subjects);
+		this.session = session;
+		boolean queued = scanLane.execute(new Runnable() {
+			public void run() {
+				runSession(session);
+				isScanRunning = false;
+				scannerObservable.setScanning(isScanRunning);
+			}
+		});
+		if (!queued) {
+			isScanRunning = false;
+		}
+	}
+	
+	/// Returns the current or last session or null.
+	public ScanSession getSession() {
+		return session;
+	}
+	
+	//Runs in the scan lane
+	private void runSession(ScanSession session) {
+		System.out.println("Session of " + session.getSubjects() + " subjects started.");
+		boolean forward = true;
+		long countdownStart = System.nanoTime();
+		session.start(countdownStart);
+		boolean windDown = false;
+		for (int i=0; i<session.getSubjects(); i++) {
+			System.out.println("Subject " + (i + 1) + " of " + session.getSubjects() + (forward ? ", scanning forward." : ", scanning backward."));
+			long motorStop = scan(forward, countdownStart, windDown, session);
+			if (motorStop < 0) {
+				break;
+			}
+			session.scanCompleted(forward);
+			scannerObservable.setScanning(false);
+			
+			//The ring is at the other end now, the next scan starts from there
+			forward = !forward;
+			countdownStart = motorStop;
+			windDown = true;
+		}
+		
+		//Wind down the last scan, nobody is waiting for it
+		if (session.getCompleted() == session.getSubjects()) {
+			long windDownStart = System.nanoTime();
+			stopSense();
+			if (configuration.isPositionControlled()) {
+				correctPosition(configuration.getScanPositionWithOffset());
+			}
+			session.record(ScanSession.Phase.WIND_DOWN, System.nanoTime() - windDownStart);
+			playDoubleBeep();
+			
+			//The last scan ended at the far end, return so the next session or scan starts at home
+			if (!forward) {
+				long returnStart = System.nanoTime();
+				if (driveBack()) {
+					session.record(ScanSession.Phase.RETURN, System.nanoTime() - returnStart);
+				}
+			}
+		}
+		else {
+			System.out.println("Session was interrupted after " + session.getCompleted() + " scans, move the ring to its start position before the next scan.");
+		}
+		session.finish(System.nanoTime());
+		System.out.println(session);
+	}
+	
+	//Drives the ring back by the scan distance at the drive back speed; returns false if interrupted
+	private boolean driveBack() {
+		int speed = configuration.getSpeedScanBackward();
+		int delay = 1000 / PROGRESS_UPDATE_RATE;
+		System.out.println("Driving back.");
+		prepareMotors(speed);
+		long stopCompensation = getStopCompensation();
+		startMotors(speed, false);
+		boolean completed;
+		if (configuration.isPositionControlled()) {
+			completed = waitForPosition(configuration.getScanPositionWithOffset(), speed, delay, stopCompensation);
 		}
 		else {
-			stopMotors();
-			if (scannerThread != null) {
-				scannerThread.interrupt();
+			completed = waitForTime(System.currentTimeMillis(), configuration.getScanDistanceWithOffset() / speed, delay);
+		}
+		if (!completed) {
+			System.out.println("Drive back was interrupted.");
+			return false;
+		}
+		stopMotors();
+		return true;
+	}
+	
+	//Runs one scan in the scan lane with the countdown starting at countdownStart (System.nanoTime()). With windDown the previous capture is stopped and the previous stop position measured during the countdown.
+	//Returns the System.nanoTime() the motors were stopped at or -1 if the scan was interrupted
+	private long scan(boolean forward, long countdownStart, final boolean windDown, ScanSession session) {
+		//Arm Sense alongside the countdown, its own countdown starts with the click. Whoever comes second of the capture start and an abort stops the capture.
+		final AtomicInteger capture = new AtomicInteger(CAPTURE_PENDING);
+		this.capture = capture;
+		Future<Long> senseStart = senseLane.submit(new Callable<Long>() {
+			public Long call() {
+				if (windDown) {
+					stopSense();
+				}
+				if (capture.get() == CAPTURE_ABORTED) {
+					return -1L;
+				}
+				boolean started = startSense();
+				if (started && !capture.compareAndSet(CAPTURE_PENDING, CAPTURE_STARTED)) {
+					stopSense();
+					return -1L;
+				}
+				return started ? System.nanoTime() : -1L;
 			}
-			if (audioThread != null) {
-				audioThread.interrupt();
+		});
+		
+		//Play sounds to notify scanned person that scan starts soon, then start the motors when the Sense countdown ends
+		int speed = configuration.getSpeedScanForward();
+		int targetPosition = configuration.getScanPositionWithOffset();
+		long prepareDuration = 0;
+		long stopCompensation = 0;
+		long countdownFree = countdownStart;
+		long armed;
+		long deadline;
+		try {
+			int millis = 1000;
+			int n = DELAY_SENSE_SCAN / millis;
+			for (int i=0; i<n; i++) {
+				sleepUntil(countdownStart + TimeUnit.MILLISECONDS.toNanos(i * millis));
+				System.out.print(n-i + " ");
+				audioDispatcher.play(0, AudioDispatcher.Priority.HIGH, MAX_DELAY_COUNTDOWN_BEEP);
+				
+				if (i == 0) {
+					//The previous scan winds down after the first beep, so the beep marks its end for the scanned person
+					if (windDown && configuration.isPositionControlled()) {
+						correctPosition(targetPosition);
+					}
+					countdownFree = System.nanoTime();
+					
+					//Set scan speed ahead of time so only the start commands are sent when the countdown ends
+					long prepareStart = System.nanoTime();
+					prepareMotors(speed);
+					prepareDuration = System.nanoTime() - prepareStart;
+					stopCompensation = getStopCompensation();
+				}
+			}
+			
+			try {
+				armed = senseStart.get();
+			} catch (CancellationException e) {
+				System.out.println("Failed to queue Sense start.");
+				armed = -1;
+			} catch (ExecutionException e) {
+				System.out.println("Failed to start capture: " + e.getCause());
+				armed = -1;
 			}
-			if (batteryStatusThread != null) {
-				batteryStatusThread.interrupt();
+			deadline = (armed >= 0 ? armed : countdownStart) + TimeUnit.MILLISECONDS.toNanos(DELAY_SENSE_SCAN);
+			sleepUntil(deadline);
+		} catch (InterruptedException e) {
+			System.out.println();
+			System.out.println("Scan countdown was interrupted.");
+			
+			//canStopSense is not set yet, unless the stop button already did, the capture is left to this scan
+			abortCapture(capture);
+			senseStart.cancel(true);
+			return -1;
+		}
+		
+		System.out.println();				
+		canStopSense = true;
+		this.capture = null;
+		
+		//Start motors
+		long motorStart = System.nanoTime();
+		startMotors(speed, forward);
+		long motorStartDuration = System.nanoTime() - motorStart;
+		
+		System.out.println("Scan start: arm Sense " + (armed >= 0 ? toMillis(armed - countdownStart) + " ms" : "failed")
+				+ ", prepare motors " + toMillis(prepareDuration) + " ms"
+				+ ", countdown " + toMillis(deadline - countdownStart) + " ms"
+				+ ", motors started " + toMillis(motorStart - deadline) + " ms after deadline"
+				+ ", start commands " + toMillis(motorStartDuration) + " ms.");
+		
+		//Calculate sleep time for progress updates
+		int delay = 1000 / PROGRESS_UPDATE_RATE;
+		
+		//Calculate scan duration
+		int scanDuration = configuration.getScanDistanceWithOffset() / speed;
+		long startTime = System.currentTimeMillis();
+		
+		//Wait until the scan is complete
+		boolean completed;
+		if (configuration.isPositionControlled()) {
+			scannerObservable.setScanStarted(startTime, scanDuration, targetPosition);
+			completed = waitForPosition(targetPosition, speed, delay, stopCompensation);
+		}
+		else {
+			scannerObservable.setScanStarted(startTime, scanDuration);
+			completed = waitForTime(startTime, scanDuration, delay);
+		}
+		if (!completed) {
+			return -1;
+		}
+		
+		//Scan is complete - stop motors
+		stopMotors();
+		long motorStop = System.nanoTime();
+		
+		if (session != null) {
+			if (windDown) {
+				session.record(ScanSession.Phase.WIND_DOWN, countdownFree - countdownStart);
 			}
-			if (canStopSense) {
-				stopSense();
+			session.record(ScanSession.Phase.COUNTDOWN, deadline - countdownFree);
+			session.record(ScanSession.Phase.START, motorStart + motorStartDuration - deadline);
+			session.record(ScanSession.Phase.SCAN, motorStop - motorStart - motorStartDuration);
+		}
+		return motorStop;
+	}
+	
+	/// Closes the connection and stops all background work. The controller cannot be used afterwards.
+	public void close() {
+		synchronized (this) {
+			closing = true;
+			if (reconnectTask != null) {
+				reconnectTask.cancel(false);
 			}
-			closeMotors();
-			System.out.println("Closed connection.");
-			brickConnected = false;
-			scannerObservable.setConnected(brickConnected);
 		}
+		//A connection in progress closes itself when interrupted by the scheduler
+		if (!brickConnecting) {
+			disconnect();
+		}
+		scheduler.close(SCHEDULER_CLOSE_TIMEOUT);
+		scanSoftware.close();
+		System.out.println(scheduler);
+		System.out.println(audioDispatcher);
+	}
+	
+	/// Returns the heartbeat of the current connection or null.
+	public Heartbeat getHeartbeat() {
+		return heartbeat;
+	}
+	
+	public AudioDispatcher getAudioDispatcher() {
+		return audioDispatcher;
+	}
+	
+	/// Returns the lanes of the background work with their metrics.
+	public TaskScheduler getScheduler() {
+		return scheduler;
 	}
 	
+	private void disconnect() {
+		stopHeartbeat();
+		stopMotors();
+		scanLane.interrupt();
+		audioDispatcher.clear();
+		stopBatteryStatus();
+		if (canStopSense) {
+			stopSense();
+		}
+		closeMotors();
+		releaseResources();
+		Brick brick = this.brick;
+		this.brick = null;
+		if (brick != null) {
+			brick.close();
+		}
+		System.out.println("Closed connection.");
+		brickConnected = false;
+		scannerObservable.setConnected(brickConnected);
+	}
+	
+	/// Plays a status beep, e.g. when connected. Repeated requests while one is pending play only once.
 	public void playBeep() {
-		playSystemSound(0);
+		audioDispatcher.play(0, AudioDispatcher.Priority.LOW, MAX_DELAY_STATUS_BEEP);
 	}
 	
 	public void playDoubleBeep() {
-		playSystemSound(1);
+		audioDispatcher.play(1, AudioDispatcher.Priority.NORMAL, MAX_DELAY_STATUS_BEEP);
 	}
 	
-	private void playSystemSound(final int code) {
-		enqueueAudio(new Runnable() {
-			public void run() {
-				Audio a = getAudio();
-				if (a != null) {
-					a.systemSound(code);
-				}
+	//Runs in the audio lane. Motor commands always go first, the sound waits for them until its deadline.
+	private boolean playSystemSound(int code, long deadline) throws InterruptedException {
+		Audio a = getAudio();
+		if (a == null) {
+			return false;
+		}
+		MotorGroup motors = this.motors;
+		if (motors != null) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0 || !motors.awaitIdle(TimeUnit.NANOSECONDS.toMillis(remaining))) {
+				return false;
 			}
-		});
+		}
+		a.systemSound(code);
+		return true;
 	}
 	
+	//The handle is fetched once per connection, later sounds only need the sound call
 	private Audio getAudio() {
-		if (brick != null) {
-			synchronized(brick) {
-				return brick.getAudio();
+		Audio audio = this.audio;
+		Brick brick = this.brick;
+		if (audio == null && brick != null) {
+			synchronized(audioLock) {
+				if (this.audio == null) {
+					this.audio = brick.getAudio();
+				}
+				audio = this.audio;
 			}
 		}
-		return null;
+		return audio;
 	}
 	
-	private void enqueueAudio(Runnable runnable) {
-		try {
-			audioQueue.put(runnable);
-		} catch (InterruptedException e) {
+	private Power getPower() {
+		Power power = this.power;
+		Brick brick = this.brick;
+		if (power == null && brick != null) {
+			synchronized(powerLock) {
+				if (this.power == null) {
+					this.power = brick.getPower();
+				}
+				power = this.power;
+			}
 		}
-		
-		if (!audioQueueRunning) {
-			audioQueueRunning = true;
-			audioThread = new Thread() {
+		return power;
+	}
+	
+	private void releaseResources() {
+		synchronized(audioLock) {
+			audio = null;
+		}
+		synchronized(powerLock) {
+			power = null;
+		}
+	}
+	
+	private synchronized void fetchBatteryStatus() {
+		if (!batteryPolling) {
+			batteryPolling = true;
+			batteryGeneration++;
+			scheduleBatteryStatus(0, batteryGeneration);
+		}
+	}
+	
+	private synchronized void stopBatteryStatus() {
+		batteryPolling = false;
+		ScheduledFuture<?> batteryStatusTask = this.batteryStatusTask;
+		if (batteryStatusTask != null) {
+			batteryStatusTask.cancel(false);
+		}
+	}
+	
+	//Each reading schedules the next one, the delay depends on the scan and the voltage trend
+	private void scheduleBatteryStatus(long delay, final int generation) {
+		try {
+			batteryStatusTask = scheduler.schedule(batteryLane, new Runnable() {
 				public void run() {
-					try {
-						while(true) {
-							Runnable r = audioQueue.take();
-							r.run();
-						}
-					} catch(InterruptedException ex) {
-						System.out.println("Interrupted audio queue thread");
-						audioQueueRunning = false;
+					if (!batteryPolling || generation != batteryGeneration) {
+						return;
+					}
+					//Motor commands have priority, no reading during a scan or while commands are in progress
+					MotorGroup motors = ScannerController.this.motors;
+					boolean motorsCritical = isScanRunning || (motors != null && motors.isBusy());
+					if (!motorsCritical) {
+						readBattery();
+					}
+					if (batteryPolling && generation == batteryGeneration) {
+						scheduleBatteryStatus(batteryTelemetry.getNextDelay(motorsCritical), generation);
 					}
 				}
-			};
-			audioThread.start();
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			//Scheduler closed
+			batteryPolling = false;
 		}
 	}
 	
-	private void fetchBatteryStatus() {
-		if (!batteryStatusThreadRunning) {
-			batteryStatusThreadRunning = true;
-			batteryStatusThread = new Thread() {
+	private void startHeartbeat() {
+		if (configuration.getHeartbeatInterval() > 0) {
+			heartbeat = new Heartbeat(brick, scannerObservable, configuration.getHeartbeatInterval(), configuration.getHeartbeatTimeout(), new Runnable() {
 				public void run() {
-					try {
-						while (true) {
-							if (brick != null) {
-								synchronized(brick) {
-									Power p = brick.getPower();
-									if (p != null) {
-										float status = p.getVoltage() / 9f;
-										if (status < 0) {
-											status = 0;
-										}
-										if (status > 1) {
-											status = 1;
-										}
-										scannerObservable.setBattery(status);
-									}
-								}
-							}
-							Thread.sleep(DELAY_BATTERY_STATUS);
-						}
-					} catch (InterruptedException e) {
-						System.out.println("Interrupted battery status thread");
-						batteryStatusThreadRunning = false;
-					}
+					onLinkDead();
 				}
-			};
-			batteryStatusThread.start();
+			});
+			heartbeat.start(scheduler, heartbeatLane);
 		}
 	}
 	
-	private void startMotors(int speed, boolean forward) {
-		if (brickConnected && motors != null) {
-			synchronized(motors) {
-				try {
-					for(int i=0; i<motors.size(); i++) {
-						RMIRegulatedMotor motor = motors.get(i);
-						motor.setSpeed(speed);
-						if (forward) {
-							motor.forward();
-						}
-						else {
-							motor.backward();
-						}
-					}
-					System.out.println("Started motors.");
-				} catch (RemoteException e) {
-					System.out.println("Failed to start motors.");
-					brickConnected = false;
-					scannerObservable.setConnected(brickConnected);
+	private void stopHeartbeat() {
+		Heartbeat heartbeat = this.heartbeat;
+		if (heartbeat != null) {
+			heartbeat.stop();
+			System.out.println(heartbeat);
+			this.heartbeat = null;
+		}
+	}
+	
+	//The brick stopped answering, give up on the connection instead of waiting for remote calls to time out
+	private void onLinkDead() {
+		System.out.println("Brick not responding, connection lost.");
+		scanLane.interrupt();
+		abortCapture();
+		connectionLost();
+	}
+	
+	private void readBattery() {
+		Power p = getPower();
+		if (p != null) {
+			try {
+				float voltage = p.getVoltage();
+				batteryTelemetry.record(System.currentTimeMillis(), voltage);
+				float status = voltage / 9f;
+				if (status < 0) {
+					status = 0;
+				}
+				if (status > 1) {
+					status = 1;
 				}
+				scannerObservable.setBattery(status);
+			} catch (RuntimeException e) {
+				batteryTelemetry.recordFailure();
+				System.out.println("Failed to read battery voltage.");
 			}
 		}
 	}
 	
-	private void startSense() {
-		//Click on scan in Sense software with robot
-		if (isSenseRunning()) {
-			//Robot robot = new Robot();
-		    //Rectangle captureSize = new Rectangle(Toolkit.getDefaultToolkit().getScreenSize());
-		    //BufferedImage bufferedImage = robot.createScreenCapture(captureSize);
-		    // ...
-
-		    //int color = image.getRGB(x, y);
-
-		    //int  red = (color & 0x00ff0000) >> 16;
-		    //int  green = (color & 0x0000ff00) >> 8;
-		    //int  blue = color & 0x000000ff;
-			
-			Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
-			Point mouseLocation = MouseInfo.getPointerInfo().getLocation();
-			try {
-				Robot bot = new Robot();
-				//window.setState(Frame.ICONIFIED);
-				int x = screenSize.width / 2;
-				int y = getYWithColor(bot, x, SENSE_COLOR_DEFAULT);
-				
-				if (y != -1) {
-					System.out.println("Simulate click on " + x + "/" + y);
-					
-					moveMouseTo(bot, x, y, ATTEMPTS_MOUSE_MOVE);
-					
-					bot.mousePress(InputEvent.BUTTON1_DOWN_MASK);
-					bot.mouseRelease(InputEvent.BUTTON1_DOWN_MASK);
-					moveMouseTo(bot, mouseLocation.x, mouseLocation.y, ATTEMPTS_MOUSE_MOVE);
+	/// Returns the cached battery readings. Reading them never contacts the brick.
+	public BatteryTelemetry getBatteryTelemetry() {
+		return batteryTelemetry;
+	}
+	
+	//Sets the speed and resets the position of the motors ahead of a start
+	void prepareMotors(int speed) {
+		if (brickConnected && motors != null) {
+			synchronized(motors) {
+				try {
+					motors.setSpeed(speed);
+					motors.resetTachoCount();
+				} catch (RemoteException e) {
+					System.out.println("Failed to set motor speed.");
+					connectionLost();
 				}
-			} catch (AWTException e) {				
 			}
 		}
 	}
 	
-	private void stopMotors() {
+	void startMotors(int speed, boolean forward) {
 		if (brickConnected && motors != null) {
 			synchronized(motors) {
 				try {
-					for(int i=0; i<motors.size(); i++) {
-						RMIRegulatedMotor motor = motors.get(i);
-						motor.stop(true);
+					long stopRequests = emergencyStop.getRequested();
+					motors.setSpeed(speed);
+					if (forward) {
+						motors.forward();
+					}
+					else {
+						motors.backward();
+					}
+					
+					//A stop requested while starting may have reached the motors before the start commands
+					if (emergencyStop.getRequested() != stopRequests) {
+						motors.stop();
+						System.out.println("Stopped motors again, stop was requested while starting.");
+						return;
 					}
-					System.out.println("Stopped motors.");
+					System.out.println("Started motors (skew " + toMillis(motors.getLastSkew(forward ? MotorGroup.Command.FORWARD : MotorGroup.Command.BACKWARD)) + " ms).");
 				} catch (RemoteException e) {
-					System.out.println("Failed to stop motors.");
-					brickConnected = false;
-					scannerObservable.setConnected(brickConnected);
+					System.out.println("Failed to start motors.");
+					connectionLost();
 				}
 			}
 		}
 	}
 	
-	private void stopSense() {
-		//Click on stop in Sense software with robot
+	//Stops the capture of the running scan, during the countdown via its capture state
+	private void abortCapture() {
+		AtomicInteger capture = this.capture;
+		if (capture != null) {
+			abortCapture(capture);
+		}
+		else if (canStopSense) {
+			senseLane.execute(new Runnable() {
+				public void run() {
+					stopSense();
+				}
+			});
+		}
+	}
+	
+	//Keeps a queued start from starting the capture or stops a started capture, only the first call for a capture has an effect
+	private void abortCapture(AtomicInteger capture) {
+		if (!capture.compareAndSet(CAPTURE_PENDING, CAPTURE_ABORTED) && capture.compareAndSet(CAPTURE_STARTED, CAPTURE_STOPPED)) {
+			senseLane.execute(new Runnable() {
+				public void run() {
+					stopSense();
+				}
+			});
+		}
+	}
+	
+	//Returns true if the capture was triggered
+	private boolean startSense() {
+		//Start capture in Sense
 		if (isSenseRunning()) {
-			Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
-			Point mouseLocation = MouseInfo.getPointerInfo().getLocation();
+			if (scanSoftware.startCapture()) {
+				return true;
+			}
+			System.out.println("Failed to start capture.");
+		}
+		return false;
+	}
+	
+	//Prepares Sense in the background, so starting the capture later only needs the click
+	private void prepareSense() {
+		senseLane.execute(new Runnable() {
+			public void run() {
+				scanSoftware.prepare();
+			}
+		});
+	}
+	
+	//Not synchronized on motors, so a stop never waits for a start command in progress. Also tried while disconnected, the retained handles may still reach the brick.
+	void stopMotors() {
+		MotorGroup motors = this.motors;
+		if (motors != null) {
 			try {
-				Robot bot = new Robot();
-				int x = screenSize.width / 2;
-				int y = getYWithColor(bot, x, SENSE_COLOR_ACTIVE);
-				
-				if (y != -1) {
-				
-					System.out.println("Simulate click on " + x + "/" + y);
-					
-					moveMouseTo(bot, x, y, ATTEMPTS_MOUSE_MOVE);
-					
-					bot.mousePress(InputEvent.BUTTON1_DOWN_MASK);
-					bot.mouseRelease(InputEvent.BUTTON1_DOWN_MASK);
-					moveMouseTo(bot, mouseLocation.x, mouseLocation.y, ATTEMPTS_MOUSE_MOVE);
-				}
-			} catch (AWTException e) {
+				motors.stop();
+				System.out.println("Stopped motors (skew " + toMillis(motors.getLastSkew(MotorGroup.Command.STOP)) + " ms).");
+			} catch (RemoteException e) {
+				System.out.println("Failed to stop motors.");
+				connectionLost();
+			}
+		}
+	}
+	
+	private void stopSense() {
+		//Stop capture in Sense
+		if (isSenseRunning()) {
+			if (!scanSoftware.stopCapture()) {
+				System.out.println("Failed to stop capture.");
 			}
 		}
 		canStopSense = false;
@@ -530,15 +1103,10 @@ public class ScannerController {
 		if (motors != null) {
 			synchronized(motors) {
 				try {
-					for(int i=0; i<motors.size(); i++) {
-						RMIRegulatedMotor motor = motors.get(i);
-						motor.close();
-					}
+					motors.close();
 					System.out.println("Closed motors.");
 				} catch (RemoteException e) {
 					System.out.println("Failed to close motors.");
-					brickConnected = false;
-					scannerObservable.setConnected(brickConnected);
 				} finally {
 					motors = null;
 				}
@@ -547,76 +1115,145 @@ public class ScannerController {
 	}
 	
 	private boolean isSenseRunning() {
-		List<String> processes = getRunningProcesses();
-		if (processes != null) {
-			for(String process : processes) {
-				if (process.startsWith("Sense.exe")) {
-					return true;
-				}
-			}
-		}
-		return false;
+		return scanSoftware.isRunning();
 	}
 	
-	private List<String> getRunningProcesses() {
-		ArrayList<String> result = null;
-		String line = null;
-		BufferedReader input = null;
-
-		try {
-			Process p = Runtime.getRuntime().exec(System.getenv("windir") +"\\system32\\"+"tasklist.exe");
-	
-			input =  new BufferedReader(new InputStreamReader(p.getInputStream()));
-			result = new ArrayList<String>();
-	
-			while ((line = input.readLine()) != null) {
-				result.add(line);
+	//Returns false if the scan was interrupted
+	private boolean waitForTime(long startTime, int scanDuration, int delay) {
+		while (true) {
+			long now = System.currentTimeMillis();
+			long timeUntilEnd = startTime + scanDuration - now;
+			
+			//Set progress
+			scannerObservable.setCurrentTime(now);
+			
+			//Stop waiting if scan is complete
+			if (Thread.interrupted()) {
+				System.out.println("Scan was interrupted.");
+				return false;
 			}
-		} catch(Exception e) {
-			result = null;
-		} finally {
-			if (input != null) {
+			if (timeUntilEnd <= 0) {
+				return true;
+			}
+			else {
+				//Sleep for a while
 				try {
-					input.close();
-				} catch (IOException e) {
+					Thread.sleep(Math.min(timeUntilEnd + 1, delay));
+				} catch (InterruptedException e) {
+					System.out.println("Scan was interrupted during sleep.");
+					return false;
 				}
 			}
 		}
-		return result;
 	}
 	
-	private void moveMouseTo(Robot bot, int x, int y, int maxAttempts) {
-		boolean positionCorrect = false;
-		int attempts = 0;
-		do {
-			bot.mouseMove(x, y);
-			attempts++;
-			Point location = MouseInfo.getPointerInfo().getLocation();
-			if (location.x != x || location.y != y) {
-				positionCorrect = false;
+	//Polls the motor position until the ring reaches the target; returns false if the scan was interrupted
+	private boolean waitForPosition(int targetPosition, int speed, int delay, long stopCompensation) {
+		MotorGroup motors = this.motors;
+		if (motors == null) {
+			return false;
+		}
+		while (true) {
+			int position;
+			try {
+				position = motors.getTachoCount();
+			} catch (RemoteException e) {
+				System.out.println("Failed to read motor position.");
+				//The handles are kept for reuse, so nothing else stops the ring before a reconnect
+				stopMotors();
+				connectionLost();
+				return false;
 			}
-			else {
-				positionCorrect = true;
+			
+			//Set progress
+			scannerObservable.setPosition(System.currentTimeMillis(), position);
+			
+			if (Thread.interrupted()) {
+				System.out.println("Scan was interrupted.");
+				return false;
+			}
+			
+			//Time until the ring reaches the target, less the time until a stop reaches the motors
+			long timeUntilEnd = (targetPosition - position - positionCorrection) * 1000L / speed - stopCompensation;
+			if (timeUntilEnd <= 0) {
+				return true;
+			}
+			
+			//Sleep for a while
+			try {
+				Thread.sleep(Math.min(timeUntilEnd, delay));
+			} catch (InterruptedException e) {
+				System.out.println("Scan was interrupted during sleep.");
+				return false;
 			}
-		} while(!positionCorrect && attempts < maxAttempts);
+		}
+	}
+	
+	//Returns the time in ms the ring keeps moving after the stop decision: the age of the position read plus the time a stop needs to reach the motors
+	//Sorts copies of the recorded durations, so it is computed once before the motors start instead of on every position read
+	private long getStopCompensation() {
+		MotorGroup motors = this.motors;
+		if (motors == null) {
+			return 0;
+		}
+		long stop = motors.getDuration(MotorGroup.Command.STOP).getPercentile(50);
+		long tacho = motors.getDuration(MotorGroup.Command.TACHO).getPercentile(50);
+		return (Math.max(0, stop) / 2 + Math.max(0, tacho) / 2) / 1000000;
+	}
+	
+	//Measures where the ring stopped and corrects the stop position of the next scan
+	private void correctPosition(int targetPosition) {
+		MotorGroup motors = this.motors;
+		if (!brickConnected || motors == null) {
+			return;
+		}
+		try {
+			//Let the motors decelerate
+			Thread.sleep(DELAY_POSITION_SETTLE);
+			int position = motors.getTachoCount();
+			int error = position - targetPosition;
+			positionCorrection = Math.max(-MAX_POSITION_CORRECTION, Math.min(MAX_POSITION_CORRECTION, positionCorrection + error / 2));
+			System.out.println("Scan ended at " + position + " deg (target " + targetPosition + " deg, error " + error + " deg).");
+		} catch (RemoteException e) {
+			System.out.println("Failed to read motor position.");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
 	
-	private int getYWithColor(Robot bot, int x, Color color) {
-		Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
-		int y = screen.height - 1;
-		BufferedImage screenShot = bot.createScreenCapture(new Rectangle(0, 0, screen.width, screen.height));
-		while (y >= 0 && !getColor(screenShot, x, y).equals(color)) {
-			y--;
+	MotorGroup getMotors() {
+		return motors;
+	}
+	
+	EmergencyStop getEmergencyStop() {
+		return emergencyStop;
+	}
+	
+	/// Returns the latency from pressing stop until the motors acknowledged the stop.
+	public LatencyRecorder getStopLatency() {
+		return emergencyStop.getLatency();
+	}
+	
+	//Sleeps until the given System.nanoTime(), yielding instead of sleeping shortly before it for accuracy
+	private static void sleepUntil(long deadline) throws InterruptedException {
+		while (true) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return;
+			}
+			if (remaining > SPIN_BEFORE_DEADLINE) {
+				TimeUnit.NANOSECONDS.sleep(remaining - SPIN_BEFORE_DEADLINE);
+			}
+			else {
+				Thread.yield();
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
 		}
-		screenShot.flush();
-		return y;
 	}
 	
-	private Color getColor(BufferedImage image, int x, int y) {
-		int clr    =  image.getRGB(x, y); 
-		int  red   = (clr & 0x00ff0000) >> 16;
-		int  green = (clr & 0x0000ff00) >> 8;
-		int  blue  =  clr & 0x000000ff;
-		return new Color(red, green, blue);
+	private static String toMillis(long nanos) {
+		return String.format("%.2f", nanos / 1000000.0);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,8 @@
+package at.fhhgb.scanner;
+
+/// Receives the state published by ScannerObservable.
+public interface ScannerListener {
+	
+	/// Called on a dispatch thread with the published state, never concurrently for the same listener.
+	public void stateChanged(ScannerState state);
+}
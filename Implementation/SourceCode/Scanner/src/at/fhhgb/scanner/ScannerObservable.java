@@ -1,138 +1,217 @@
 package at.fhhgb.scanner;
 
-import java.util.Observable;
-
-public class ScannerObservable extends Observable {
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+/// Holds the current ScannerState and publishes every change to the registered listeners.
+/**
+ * The state is an immutable snapshot in an atomic reference, so reading it
+ * never blocks. Listeners are notified asynchronously through a
+ * ListenerSubscription each, the publishing thread (e.g. the scan loop) only
+ * hands the new snapshot over and never waits for a listener.
+ */
+public class ScannerObservable {
+	
+	private static final int DISPATCH_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
 	
 	private ScannerConfiguration configuration;
 	
-	//Scanning state
-	private int duration = -1;
-	private long currentTime = -1;
-	private long startTime = -1;
-	private boolean isScanning = false;
-	private boolean shouldResetBrick = false;
-	private float battery = 0f;
+	private AtomicReference<ScannerState> state = new AtomicReference<>(ScannerState.INITIAL);
+	private Object writeLock = new Object();
 	
-	//Connection state
-	private boolean isConnected = false;
-	private boolean isConnecting = false;
+	private List<ListenerSubscription> subscriptions = new CopyOnWriteArrayList<>();
+	private ExecutorService dispatcher = null;
 	
 	public ScannerObservable(ScannerConfiguration configuration) {
 		super();
 		this.configuration = configuration;
+		
+		//A subscription never occupies more than one thread and has at most one task queued
+		this.dispatcher = Executors.newFixedThreadPool(DISPATCH_THREADS, new ThreadFactory() {
+			private int n = 0;
+			
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "State dispatch-" + (n++));
+				t.setDaemon(true);
+				return t;
+			}
+		});
 	}
 	
 	public ScannerConfiguration getConfiguration() {
 		return configuration;
 	}
+	
+	/// Adds a listener that always gets the newest state.
+	public ListenerSubscription addListener(ScannerListener listener) {
+		return addListener(listener, ListenerSubscription.DeliveryPolicy.LATEST_ONLY, 1);
+	}
+	
+	/// Adds a listener with the given delivery policy and queue capacity.
+	public ListenerSubscription addListener(ScannerListener listener, ListenerSubscription.DeliveryPolicy policy, int capacity) {
+		ListenerSubscription subscription = new ListenerSubscription(listener, policy, capacity, dispatcher);
+		subscriptions.add(subscription);
+		return subscription;
+	}
+	
+	public void removeListener(ScannerListener listener) {
+		for (ListenerSubscription subscription : subscriptions) {
+			if (subscription.getListener() == listener) {
+				subscriptions.remove(subscription);
+			}
+		}
+	}
+	
+	public int countListeners() {
+		return subscriptions.size();
+	}
+	
+	/// Returns the subscriptions of all listeners, e.g. to monitor their lag.
+	public List<ListenerSubscription> getSubscriptions() {
+		return new ArrayList<>(subscriptions);
+	}
+	
+	/// Returns the current state snapshot.
+	public ScannerState getState() {
+		return state.get();
+	}
 
 	public int getDuration() {
-		return duration;
+		return state.get().getDuration();
 	}
 
 	public void setDuration(int duration) {
-		this.duration = duration;
-		setChanged();
-		notifyObservers();
+		synchronized (writeLock) {
+			publish(state.get().withDuration(duration));
+		}
 	}
 
 	public long getCurrentTime() {
-		return currentTime;
+		return state.get().getCurrentTime();
 	}
 
 	public void setCurrentTime(long currentTime) {
-		this.currentTime = currentTime;
-		setChanged();
-		notifyObservers();
+		synchronized (writeLock) {
+			publish(state.get().withCurrentTime(currentTime));
+		}
 	}
 
 	public long getStartTime() {
-		return startTime;
+		return state.get().getStartTime();
 	}
 
 	public void setStartTime(long startTime) {
-		this.startTime = startTime;
-		setChanged();
-		notifyObservers();
+		synchronized (writeLock) {
+			publish(state.get().withStartTime(startTime));
+		}
 	}
 
 	public boolean isScanning() {
-		return isScanning;
+		return state.get().isScanning();
 	}
 
 	public void setScanning(boolean isScanning) {
-		this.isScanning = isScanning;
-		setChanged();
-		notifyObservers();
-	}	
+		synchronized (writeLock) {
+			publish(state.get().withScanning(isScanning));
+		}
+	}
+	
+	/// Sets start time, current time, duration and scanning flag in one change.
+	public void setScanStarted(long startTime, int duration) {
+		synchronized (writeLock) {
+			publish(state.get().withScanStarted(startTime, duration));
+		}
+	}
+
+	/// Sets start time, current time, estimated duration, target position and scanning flag in one change.
+	public void setScanStarted(long startTime, int duration, int targetPosition) {
+		synchronized (writeLock) {
+			publish(state.get().withScanStarted(startTime, duration, targetPosition));
+		}
+	}
+	
+	/// Sets current time and position in one change.
+	public void setPosition(long currentTime, int position) {
+		synchronized (writeLock) {
+			publish(state.get().withPosition(currentTime, position));
+		}
+	}
 
 	public boolean isShouldResetBrick() {
-		return shouldResetBrick;
+		return state.get().isShouldResetBrick();
 	}
 
 	public void setShouldResetBrick(boolean shouldResetBrick) {
-		this.shouldResetBrick = shouldResetBrick;
-		setChanged();
-		notifyObservers();
+		synchronized (writeLock) {
+			publish(state.get().withShouldResetBrick(shouldResetBrick));
+		}
 	}
 
 	public float getBattery() {
-		return battery;
+		return state.get().getBattery();
 	}
 
 	public void setBattery(float battery) {
-		this.battery = battery;
-		setChanged();
-		notifyObservers();
+		synchronized (writeLock) {
+			publish(state.get().withBattery(battery));
+		}
 	}
 
 	public boolean isConnected() {
-		return isConnected;
+		return state.get().isConnected();
 	}
 
 	public void setConnected(boolean isConnected) {
-		this.isConnected = isConnected;
-		setChanged();
-		notifyObservers();
+		synchronized (writeLock) {
+			publish(state.get().withConnected(isConnected));
+		}
 	}
 
 	public boolean isConnecting() {
-		return isConnecting;
+		return state.get().isConnecting();
 	}
 
 	public void setConnecting(boolean isConnecting) {
-		this.isConnecting = isConnecting;
-		setChanged();
-		notifyObservers();
+		synchronized (writeLock) {
+			publish(state.get().withConnecting(isConnecting));
+		}
 	}
 	
-	public double getProgress() {
-		double progress = (currentTime - startTime) / (double)duration;
-		if (progress < 0) {
-			progress = 0;
-		}
-		else if (progress > 1) {
-			progress = 1;
+	public LinkState getLinkState() {
+		return state.get().getLinkState();
+	}
+
+	public void setLinkState(LinkState linkState) {
+		synchronized (writeLock) {
+			publish(state.get().withLinkState(linkState));
 		}
-		return progress;
+	}
+	
+	public double getProgress() {
+		return state.get().getProgress();
 	}
 	
 	public int getTimePassed() {
-		return (int)(currentTime - startTime);
+		return state.get().getTimePassed();
 	}
 	
 	public int getTimeRemaining() {
-		return (duration - getTimePassed());
+		return state.get().getTimeRemaining();
 	}
 	
-	@Override
-	public void notifyObservers() {
-		try {
-			super.notifyObservers(null);
-		}
-		catch(Exception e) {
-			System.out.println("Notify observer error:\r\n" + e.getMessage());
+	//Called with the write lock held, so all listeners get the states in the same order
+	private void publish(ScannerState next) {
+		if (state.getAndSet(next) != next) {
+			long now = System.nanoTime();
+			for (ListenerSubscription subscription : subscriptions) {
+				subscription.offer(next, now);
+			}
 		}
 	}
-}
\ No newline at end of file
+}
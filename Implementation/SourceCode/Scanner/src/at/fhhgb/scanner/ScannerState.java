@@ -0,0 +1,165 @@
+package at.fhhgb.scanner;
+
+/// Immutable snapshot of the scanning and connection state published by ScannerObservable.
+/**
+ * Every change creates a new snapshot, so listeners always see a consistent
+ * set of values, never a mix of an old and a new state.
+ */
+public final class ScannerState {
+	
+	/// The state before anything happened.
+	public static final ScannerState INITIAL = new ScannerState(-1, -1, -1, -1, -1, false, false, 0f, false, false, LinkState.UNKNOWN);
+	
+	//Scanning state
+	private final int duration;
+	private final long currentTime;
+	private final long startTime;
+	private final int position;
+	private final int targetPosition;
+	private final boolean isScanning;
+	private final boolean shouldResetBrick;
+	private final float battery;
+	
+	//Connection state
+	private final boolean isConnected;
+	private final boolean isConnecting;
+	private final LinkState linkState;
+	
+	private ScannerState(int duration, long currentTime, long startTime, int position, int targetPosition, boolean isScanning, boolean shouldResetBrick, float battery, boolean isConnected, boolean isConnecting, LinkState linkState) {
+		this.duration = duration;
+		this.currentTime = currentTime;
+		this.startTime = startTime;
+		this.position = position;
+		this.targetPosition = targetPosition;
+		this.isScanning = isScanning;
+		this.shouldResetBrick = shouldResetBrick;
+		this.battery = battery;
+		this.isConnected = isConnected;
+		this.isConnecting = isConnecting;
+		this.linkState = linkState;
+	}
+	
+	public int getDuration() {
+		return duration;
+	}
+	
+	public long getCurrentTime() {
+		return currentTime;
+	}
+	
+	public long getStartTime() {
+		return startTime;
+	}
+	
+	/// Returns the position of the ring in motor degrees or -1 if the scan is not position controlled.
+	public int getPosition() {
+		return position;
+	}
+	
+	/// Returns the position at which the scan ends or -1 if the scan is not position controlled.
+	public int getTargetPosition() {
+		return targetPosition;
+	}
+	
+	public boolean isPositionControlled() {
+		return targetPosition > 0;
+	}
+	
+	public boolean isScanning() {
+		return isScanning;
+	}
+	
+	public boolean isShouldResetBrick() {
+		return shouldResetBrick;
+	}
+	
+	public float getBattery() {
+		return battery;
+	}
+	
+	public boolean isConnected() {
+		return isConnected;
+	}
+	
+	public boolean isConnecting() {
+		return isConnecting;
+	}
+	
+	public LinkState getLinkState() {
+		return linkState;
+	}
+	
+	public double getProgress() {
+		double progress = isPositionControlled() ? position / (double)targetPosition : (currentTime - startTime) / (double)duration;
+		if (progress < 0) {
+			progress = 0;
+		}
+		else if (progress > 1) {
+			progress = 1;
+		}
+		return progress;
+	}
+	
+	public int getTimePassed() {
+		return (int)(currentTime - startTime);
+	}
+	
+	public int getTimeRemaining() {
+		if (isPositionControlled() && position > 0) {
+			//Estimate from the speed so far
+			return (int)(getTimePassed() * (long)(targetPosition - position) / position);
+		}
+		return (duration - getTimePassed());
+	}
+	
+	public ScannerState withDuration(int duration) {
+		return duration == this.duration ? this : new ScannerState(duration, currentTime, startTime, position, targetPosition, isScanning, shouldResetBrick, battery, isConnected, isConnecting, linkState);
+	}
+	
+	public ScannerState withCurrentTime(long currentTime) {
+		return currentTime == this.currentTime ? this : new ScannerState(duration, currentTime, startTime, position, targetPosition, isScanning, shouldResetBrick, battery, isConnected, isConnecting, linkState);
+	}
+	
+	public ScannerState withStartTime(long startTime) {
+		return startTime == this.startTime ? this : new ScannerState(duration, currentTime, startTime, position, targetPosition, isScanning, shouldResetBrick, battery, isConnected, isConnecting, linkState);
+	}
+	
+	public ScannerState withScanning(boolean isScanning) {
+		return isScanning == this.isScanning ? this : new ScannerState(duration, currentTime, startTime, position, targetPosition, isScanning, shouldResetBrick, battery, isConnected, isConnecting, linkState);
+	}
+	
+	public ScannerState withShouldResetBrick(boolean shouldResetBrick) {
+		return shouldResetBrick == this.shouldResetBrick ? this : new ScannerState(duration, currentTime, startTime, position, targetPosition, isScanning, shouldResetBrick, battery, isConnected, isConnecting, linkState);
+	}
+	
+	public ScannerState withBattery(float battery) {
+		return battery == this.battery ? this : new ScannerState(duration, currentTime, startTime, position, targetPosition, isScanning, shouldResetBrick, battery, isConnected, isConnecting, linkState);
+	}
+	
+	public ScannerState withConnected(boolean isConnected) {
+		return isConnected == this.isConnected ? this : new ScannerState(duration, currentTime, startTime, position, targetPosition, isScanning, shouldResetBrick, battery, isConnected, isConnecting, linkState);
+	}
+	
+	public ScannerState withConnecting(boolean isConnecting) {
+		return isConnecting == this.isConnecting ? this : new ScannerState(duration, currentTime, startTime, position, targetPosition, isScanning, shouldResetBrick, battery, isConnected, isConnecting, linkState);
+	}
+	
+	public ScannerState withLinkState(LinkState linkState) {
+		return linkState == this.linkState ? this : new ScannerState(duration, currentTime, startTime, position, targetPosition, isScanning, shouldResetBrick, battery, isConnected, isConnecting, linkState);
+	}
+	
+	/// Returns a state with a scan started at the given time.
+	public ScannerState withScanStarted(long startTime, int duration) {
+		return new ScannerState(duration, startTime, startTime, -1, -1, true, shouldResetBrick, battery, isConnected, isConnecting, linkState);
+	}
+	
+	/// Returns a state with a position controlled scan started at the given time. The duration is an estimate.
+	public ScannerState withScanStarted(long startTime, int duration, int targetPosition) {
+		return new ScannerState(duration, startTime, startTime, 0, targetPosition, true, shouldResetBrick, battery, isConnected, isConnecting, linkState);
+	}
+	
+	/// Returns a state with the ring at the given position (in degrees of the motors) at the given time.
+	public ScannerState withPosition(long currentTime, int position) {
+		return currentTime == this.currentTime && position == this.position ? this : new ScannerState(duration, currentTime, startTime, position, targetPosition, isScanning, shouldResetBrick, battery, isConnected, isConnecting, linkState);
+	}
+}
@@ -15,20 +15,23 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Observable;
-import java.util.Observer;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.imageio.ImageIO;
 import javax.swing.BorderFactory;
+import javax.swing.Box;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.SwingConstants;
+import javax.swing.Timer;
 import javax.swing.UIManager;
 
-public class ScannerWindow extends JFrame implements Observer {
+public class ScannerWindow extends JFrame implements ScannerListener {
 	private static final long serialVersionUID = 1L;
 	
 	private static final Dimension WINDOW_SIZE = new Dimension(800, 600);
@@ -38,11 +41,27 @@ public class ScannerWindow extends JFrame implements Observer {
 	private static final Color COLOR_DISCONNECTED = new Color(230, 140, 140);
 	
 	private static final int PROGRESS_RESOLUTION = 100000000;
+	private static final int MAX_SUBJECTS = 50;
+	
+	//Battery bar colors from red (0%) to green (100%)
+	private static final Color BATTERY_COLORS[] = createBatteryColors();
 	
 	//Model
 	private ScannerController controller = null;
 	private ScannerObservable scannerObservable = null;
 	
+	//State waiting to be rendered, at most one render is queued on the event dispatch thread
+	private AtomicReference<ScannerState> pendingState = new AtomicReference<>();
+	
+	//Rendered values, only accessed on the event dispatch thread
+	private Timer renderTimer = null;
+	private ScannerState renderedState = null;
+	private int renderedProgressValue = 0;
+	private int renderedProgressPercent = -1;
+	private int renderedTimePassed = -1;
+	private int renderedTimeRemaining = -1;
+	private int renderedBatteryPercent = -1;
+	
 	//View
 	private JPanel northPanel = null;
 	private JLabel statusLabel = null;
@@ -52,14 +71,30 @@ public class ScannerWindow extends JFrame implements Observer {
 	private JProgressBar progressBar = null;
 	private JLabel timePassedLabel = null;
 	private JLabel timeRemainingLabel = null;
+	private JSpinner subjectsSpinner = null;
 	
 	public ScannerWindow(ScannerController controller) {
 		super();
 		this.controller = controller;
 		this.controller.setWindow(this);
 		this.scannerObservable = controller.getScannerObservable();
-		this.scannerObservable.addObserver(this);
 		init();
+		
+		int displayRate = scannerObservable.getConfiguration().getDisplayRate();
+		if (displayRate > 0) {
+			//Render the latest state at the display rate, independent of how often it changes
+			renderTimer = new Timer(1000 / displayRate, new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					render(scannerObservable.getState());
+				}
+			});
+			renderTimer.setCoalesce(true);
+			renderTimer.start();
+		}
+		else {
+			this.scannerObservable.addListener(this);
+		}
 	}
 	
 	private void init() {		
@@ -68,6 +103,9 @@ public class ScannerWindow extends JFrame implements Observer {
             @Override
             public void windowClosing(WindowEvent e)
             {
+            	if (renderTimer != null) {
+            		renderTimer.stop();
+            	}
             	controller.close();
             	//e.getWindow().dispose();
             }
@@ -122,6 +160,16 @@ public class ScannerWindow extends JFrame implements Observer {
 		
 		JPanel centerNorthPanel = new JPanel();
 		centerNorthPanel.setLayout(new FlowLayout(FlowLayout.RIGHT, 0, 0));
+		
+		//Number of subjects scanned back to back with one click
+		JLabel subjectsLabel = new JLabel("Subjects ");
+		subjectsLabel.setVerticalAlignment(SwingConstants.CENTER);
+		centerNorthPanel.add(subjectsLabel);
+		subjectsSpinner = new JSpinner(new SpinnerNumberModel(1, 1, MAX_SUBJECTS, 1));
+		subjectsSpinner.setPreferredSize(new Dimension(60, 30));
+		centerNorthPanel.add(subjectsSpinner);
+		centerNorthPanel.add(Box.createHorizontalStrut(32));
+		
 		UIManager.put("ProgressBar.selectionForeground", Color.black);
 		UIManager.put("ProgressBar.selectionBackground", Color.black);
 		batteryStatusBar = new JProgressBar(0, 100);
@@ -230,7 +278,13 @@ public class ScannerWindow extends JFrame implements Observer {
 		scanButton.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				controller.onScan();
+				int subjects = (Integer)subjectsSpinner.getValue();
+				if (subjects > 1) {
+					controller.onSession(subjects);
+				}
+				else {
+					controller.onScan();
+				}
 			}
 		});
 		
@@ -276,58 +330,102 @@ public class ScannerWindow extends JFrame implements Observer {
 	}
 
 	@Override
-	public void update(Observable observable, Object argument) {
+	public void stateChanged(ScannerState state) {
+		if (pendingState.getAndSet(state) != null) {
+			//Render already queued, it will pick up this state
+			return;
+		}
 		EventQueue.invokeLater(new Runnable() {
             public void run() {
-            	reconnectButton.setVisible(!scannerObservable.isConnecting() && !scannerObservable.isConnected());
-        		
-        		if (scannerObservable.isConnecting()) {
-        			if (!COLOR_CONNECTING.equals(northPanel.getBackground())) {
-        				northPanel.setBackground(COLOR_CONNECTING);
-        				statusLabel.setText("Connecting...");
-        			}
-        		}
-        		else if (scannerObservable.isConnected()) {
-        			if (!COLOR_CONNECTED.equals(northPanel.getBackground())) {
-        				northPanel.setBackground(COLOR_CONNECTED);
-        				statusLabel.setText("Connected");
-        				
-        				//Play sound to indicate that connection works
-        				controller.playBeep();
-        			}
-        		}
-        		else {
-        			if (scannerObservable.isShouldResetBrick()) {
-        				northPanel.setBackground(COLOR_DISCONNECTED);
-        				statusLabel.setText("Not connected. Ports in use. Select system > reset on the brick and retry.");
-        			}
-        			else {
-        				northPanel.setBackground(COLOR_DISCONNECTED);
-        				statusLabel.setText("Not connected");
-        			}
-        		}
-        		
-        		if (scannerObservable.isScanning()) {
-        			double progress = scannerObservable.getProgress();
-        			int progressPercent = (int)(progress * 100);
-        			progressBar.setValue((int)(progress * PROGRESS_RESOLUTION));
-        			progressBar.setString(progressPercent + "%");
-        			timePassedLabel.setText(scannerObservable.getTimePassed()/1000 + "s");
-        			timeRemainingLabel.setText(scannerObservable.getTimeRemaining()/1000 + "s");
-        		}
-        		else {
-        			progressBar.setValue(0);
-        			progressBar.setString("");
-        			timePassedLabel.setText("");
-        			timeRemainingLabel.setText("");
-        		}
-        		
-        		float batteryPercentage = scannerObservable.getBattery();
-        		Color batteryColor = new Color((int)(255 * (1.0 - batteryPercentage)), (int)(255 * batteryPercentage), 0);
-        		batteryStatusBar.setValue((int)(batteryPercentage * 100));
-        		batteryStatusBar.setString("Battery: " + (int)(batteryPercentage * 100) + "%");
-        		batteryStatusBar.setForeground(batteryColor);
+            	render(pendingState.getAndSet(null));
             }
         });
 	}
-}
\ No newline at end of file
+	
+	//Updates only the components whose values changed since the last rendered state, must run on the EDT
+	private void render(ScannerState current) {
+		if (current == null || current == renderedState) {
+			return;
+		}
+		renderedState = current;
+		
+		boolean reconnectVisible = !current.isConnecting() && !current.isConnected();
+		if (reconnectButton.isVisible() != reconnectVisible) {
+			reconnectButton.setVisible(reconnectVisible);
+		}
+		
+		String status;
+		Color statusColor;
+		if (current.isConnecting()) {
+			status = "Connecting...";
+			statusColor = COLOR_CONNECTING;
+		}
+		else if (current.isConnected()) {
+			status = current.getLinkState() == LinkState.DEGRADED ? "Connected (slow connection)" : "Connected";
+			statusColor = COLOR_CONNECTED;
+		}
+		else if (current.isShouldResetBrick()) {
+			status = "Not connected. Ports in use. Select system > reset on the brick and retry.";
+			statusColor = COLOR_DISCONNECTED;
+		}
+		else {
+			status = "Not connected";
+			statusColor = COLOR_DISCONNECTED;
+		}
+		if (!status.equals(statusLabel.getText())) {
+			boolean wasConnected = statusLabel.getText() != null && statusLabel.getText().startsWith("Connected");
+			statusLabel.setText(status);
+			northPanel.setBackground(statusColor);
+			
+			if (current.isConnected() && !wasConnected) {
+				//Play sound to indicate that connection works
+				controller.playBeep();
+			}
+		}
+		
+		int progressValue = 0;
+		int progressPercent = -1;
+		int timePassed = -1;
+		int timeRemaining = -1;
+		if (current.isScanning()) {
+			double progress = current.getProgress();
+			progressValue = (int)(progress * PROGRESS_RESOLUTION);
+			progressPercent = (int)(progress * 100);
+			timePassed = current.getTimePassed() / 1000;
+			timeRemaining = current.getTimeRemaining() / 1000;
+		}
+		if (progressValue != renderedProgressValue) {
+			renderedProgressValue = progressValue;
+			progressBar.setValue(progressValue);
+		}
+		if (progressPercent != renderedProgressPercent) {
+			renderedProgressPercent = progressPercent;
+			progressBar.setString(progressPercent < 0 ? "" : progressPercent + "%");
+		}
+		if (timePassed != renderedTimePassed) {
+			renderedTimePassed = timePassed;
+			timePassedLabel.setText(timePassed < 0 ? "" : timePassed + "s");
+		}
+		if (timeRemaining != renderedTimeRemaining) {
+			renderedTimeRemaining = timeRemaining;
+			timeRemainingLabel.setText(timeRemaining < 0 ? "" : timeRemaining + "s");
+		}
+		
+		int batteryPercent = Math.max(0, Math.min(100, (int)(current.getBattery() * 100)));
+		if (batteryPercent != renderedBatteryPercent) {
+			renderedBatteryPercent = batteryPercent;
+			batteryStatusBar.setValue(batteryPercent);
+			batteryStatusBar.setString("Battery: " + batteryPercent + "%");
+			batteryStatusBar.setForeground(BATTERY_COLORS[batteryPercent]);
+		}
+	}
+	
+	private static Color[] createBatteryColors() {
+		Color colors[] = new Color[101];
+		for (int i=0; i<colors.length; i++) {
+			float batteryPercentage = i / 100f;
+			colors[i] = new Color((int)(255 * (1.0 - batteryPercentage)), (int)(255 * batteryPercentage), 0);
+		}
+		return colors;
+	}
+}
@@ -0,0 +1,140 @@
+package at.fhhgb.scanner;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/// Finds the y position of a Sense button by its colour in a screen column, searching from the bottom of the screen.
+/**
+ * Only a one pixel wide strip of the screen is captured and compared as
+ * packed ints with a per channel tolerance, no Color objects are created per
+ * pixel. The last position found for each colour is cached and checked with a
+ * single pixel probe before searching the strip again.
+ */
+public class SenseButtonLocator {
+	
+	/// Default maximum difference per colour channel for a pixel to match.
+	public static final int DEFAULT_TOLERANCE = 6;
+	
+	private static final int CACHE_SIZE = 4;
+	
+	private int tolerance = DEFAULT_TOLERANCE;
+	
+	//Last found positions per colour, guarded by this
+	private int cachedRgb[] = new int[CACHE_SIZE];
+	private int cachedX[] = new int[CACHE_SIZE];
+	private int cachedY[] = new int[CACHE_SIZE];
+	private int cached = 0;
+	private int nextCache = 0;
+	
+	private volatile long probeHits = 0;
+	private volatile long searches = 0;
+	
+	public int getTolerance() {
+		return tolerance;
+	}
+	
+	public void setTolerance(int tolerance) {
+		this.tolerance = Math.max(0, tolerance);
+	}
+	
+	/// Returns the number of lookups answered by the single pixel probe.
+	public long getProbeHits() {
+		return probeHits;
+	}
+	
+	/// Returns the number of lookups that needed a strip capture.
+	public long getSearches() {
+		return searches;
+	}
+	
+	/// Returns the lowest y in column x of the screen with the given colour or -1 if there is none.
+	public int locate(Robot bot, int x, int height, Color color) {
+		int rgb = color.getRGB();
+		
+		//Probe last known position first
+		int y = getCached(rgb, x);
+		if (y >= 0) {
+			if (matches(bot.getPixelColor(x, y).getRGB(), rgb, tolerance)) {
+				probeHits++;
+				return y;
+			}
+		}
+		
+		searches++;
+		BufferedImage strip = bot.createScreenCapture(new Rectangle(x, 0, 1, height));
+		y = getYWithColor(strip, 0, rgb, tolerance);
+		strip.flush();
+		
+		if (y >= 0) {
+			putCached(rgb, x, y);
+		}
+		return y;
+	}
+	
+	/// Forgets all cached positions, e.g. after the Sense window moved.
+	public synchronized void clear() {
+		cached = 0;
+		nextCache = 0;
+	}
+	
+	/// Returns the lowest y in column x of the image with the given colour or -1 if there is none.
+	public static int getYWithColor(BufferedImage image, int x, int rgb, int tolerance) {
+		int height = image.getHeight();
+		if (image.getRaster().getDataBuffer() instanceof DataBufferInt && (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB)) {
+			//Read packed pixels directly
+			DataBufferInt buffer = (DataBufferInt)image.getRaster().getDataBuffer();
+			int pixels[] = buffer.getData();
+			int stride = image.getWidth();
+			int offset = buffer.getOffset();
+			for (int y=height-1; y>=0; y--) {
+				if (matches(pixels[offset + y * stride + x], rgb, tolerance)) {
+					return y;
+				}
+			}
+			return -1;
+		}
+		for (int y=height-1; y>=0; y--) {
+			if (matches(image.getRGB(x, y), rgb, tolerance)) {
+				return y;
+			}
+		}
+		return -1;
+	}
+	
+	/// Compares two packed RGB values ignoring alpha, each channel may differ by at most the tolerance.
+	public static boolean matches(int pixel, int rgb, int tolerance) {
+		if (((pixel ^ rgb) & 0x00ffffff) == 0) {
+			return true;
+		}
+		return Math.abs(((pixel >> 16) & 0xff) - ((rgb >> 16) & 0xff)) <= tolerance
+				&& Math.abs(((pixel >> 8) & 0xff) - ((rgb >> 8) & 0xff)) <= tolerance
+				&& Math.abs((pixel & 0xff) - (rgb & 0xff)) <= tolerance;
+	}
+	
+	private synchronized int getCached(int rgb, int x) {
+		for (int i=0; i<cached; i++) {
+			if (cachedRgb[i] == rgb && cachedX[i] == x) {
+				return cachedY[i];
+			}
+		}
+		return -1;
+	}
+	
+	private synchronized void putCached(int rgb, int x, int y) {
+		for (int i=0; i<cached; i++) {
+			if (cachedRgb[i] == rgb) {
+				cachedX[i] = x;
+				cachedY[i] = y;
+				return;
+			}
+		}
+		cachedRgb[nextCache] = rgb;
+		cachedX[nextCache] = x;
+		cachedY[nextCache] = y;
+		nextCache = (nextCache + 1) % CACHE_SIZE;
+		cached = Math.min(CACHE_SIZE, cached + 1);
+	}
+}
@@ -0,0 +1,128 @@
+package at.fhhgb.scanner;
+
+import java.io.File;
+import java.rmi.RemoteException;
+import java.util.concurrent.atomic.AtomicInteger;
+import lejos.hardware.Audio;
+import lejos.hardware.port.PortException;
+
+/// Simulated speaker of a SimulatedBrick. Counts the played sounds and blocks for the configured sound duration like the brick does.
+public class SimulatedAudio implements Audio {
+	
+	private SimulatedLink link = null;
+	private volatile int soundDuration = 0;
+	private volatile int volume = VOL_MAX;
+	private volatile int lastSystemSound = -1;
+	private volatile long lastSystemSoundTime = -1;
+	private AtomicInteger soundsPlayed = new AtomicInteger();
+	
+	public SimulatedAudio(SimulatedLink link) {
+		this.link = link;
+	}
+	
+	/// Sets the time in ms a sound takes to play on the brick.
+	public void setSoundDuration(int soundDuration) {
+		this.soundDuration = Math.max(0, soundDuration);
+	}
+	
+	public int getSoundsPlayed() {
+		return soundsPlayed.get();
+	}
+	
+	public int getLastSystemSound() {
+		return lastSystemSound;
+	}
+	
+	/// Returns the System.nanoTime() at which the last system sound started playing on the brick.
+	public long getLastSystemSoundTime() {
+		return lastSystemSoundTime;
+	}
+	
+	@Override
+	public void systemSound(int code) {
+		request();
+		lastSystemSound = code;
+		lastSystemSoundTime = System.nanoTime();
+		play();
+	}
+	
+	@Override
+	public void playTone(int frequency, int duration, int volume) {
+		request();
+		play();
+	}
+	
+	@Override
+	public void playTone(int frequency, int duration) {
+		request();
+		play();
+	}
+	
+	@Override
+	public int playSample(File file, int volume) {
+		request();
+		play();
+		return 0;
+	}
+	
+	@Override
+	public int playSample(File file) {
+		request();
+		play();
+		return 0;
+	}
+	
+	@Override
+	public int playSample(byte[] data, int offset, int length, int frequency, int volume) {
+		request();
+		play();
+		return 0;
+	}
+	
+	@Override
+	public void playNote(int[] instrument, int frequency, int length) {
+		request();
+		play();
+	}
+	
+	@Override
+	public void setVolume(int volume) {
+		request();
+		this.volume = volume;
+		link.response();
+	}
+	
+	@Override
+	public int getVolume() {
+		request();
+		link.response();
+		return volume;
+	}
+	
+	@Override
+	public void loadSettings() {
+		request();
+		link.response();
+	}
+	
+	private void request() {
+		try {
+			link.request();
+		} catch (RemoteException e) {
+			throw new PortException(e);
+		}
+	}
+	
+	private void play() {
+		soundsPlayed.incrementAndGet();
+		int duration = soundDuration;
+		if (duration > 0) {
+			try {
+				Thread.sleep(duration);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		link.response();
+	}
+}
@@ -0,0 +1,120 @@
+package at.fhhgb.scanner;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lejos.hardware.Audio;
+import lejos.hardware.DeviceException;
+import lejos.hardware.Power;
+import lejos.hardware.port.PortException;
+import lejos.remote.ev3.RMIRegulatedMotor;
+
+/// A brick simulated in the local JVM. Allows running the ScannerController without an EV3, e.g. to measure scan timing and stop latency.
+/**
+ * Motors, battery and audio are simulated, every call to them goes through a
+ * SimulatedLink with configurable latency, jitter and failure rate. Like on a
+ * real brick, a motor port stays in use until its motor is closed.
+ */
+public class SimulatedBrick implements Brick {
+	
+	private SimulatedLink link = null;
+	private SimulatedPower power = null;
+	private SimulatedAudio audio = null;
+	private Map<String, SimulatedMotor> motors = null;
+	
+	private BrickFactory factory = new BrickFactory() {
+		@Override
+		public Brick connect(String ip) throws RemoteException {
+			link.roundTrip();
+			return SimulatedBrick.this;
+		}
+	};
+	
+	public SimulatedBrick() {
+		this(new SimulatedLink());
+	}
+	
+	public SimulatedBrick(SimulatedLink link) {
+		this.link = link;
+		this.power = new SimulatedPower(link);
+		this.audio = new SimulatedAudio(link);
+		this.motors = new HashMap<>();
+	}
+	
+	/// Returns a factory that connects to this brick regardless of the IP address.
+	public BrickFactory getFactory() {
+		return factory;
+	}
+	
+	public SimulatedLink getLink() {
+		return link;
+	}
+	
+	public SimulatedPower getSimulatedPower() {
+		return power;
+	}
+	
+	public SimulatedAudio getSimulatedAudio() {
+		return audio;
+	}
+	
+	/// Returns the motors currently open on the brick.
+	public synchronized List<SimulatedMotor> getSimulatedMotors() {
+		return new ArrayList<>(motors.values());
+	}
+	
+	@Override
+	public RMIRegulatedMotor createRegulatedMotor(String port, char type) {
+		try {
+			link.request();
+		} catch (RemoteException e) {
+			throw new PortException(e);
+		}
+		SimulatedMotor motor;
+		synchronized (this) {
+			if (motors.containsKey(port)) {
+				throw new DeviceException("Port " + port + " is in use");
+			}
+			motor = new SimulatedMotor(this, link, port);
+			motors.put(port, motor);
+		}
+		link.response();
+		return motor;
+	}
+	
+	@Override
+	public Audio getAudio() {
+		lookup();
+		return audio;
+	}
+	
+	@Override
+	public Power getPower() {
+		lookup();
+		return power;
+	}
+	
+	@Override
+	public void ping() throws RemoteException {
+		link.roundTrip();
+	}
+	
+	@Override
+	public void close() {
+		//The factory hands out this brick on every connect, it stays usable
+	}
+	
+	synchronized void release(String port) {
+		motors.remove(port);
+	}
+	
+	private void lookup() {
+		try {
+			link.roundTrip();
+		} catch (RemoteException e) {
+			throw new PortException(e);
+		}
+	}
+}
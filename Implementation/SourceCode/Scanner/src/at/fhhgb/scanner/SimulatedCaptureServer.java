@@ -0,0 +1,196 @@
+package at.fhhgb.scanner;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Toolkit;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+/// A stand-in for the capture software on the loopback interface, used with --simulate and to measure the trigger latency of the ScanSoftware adapters.
+/**
+ * Accepts the commands of SocketScanSoftware. For RobotScanSoftware
+ * showWindow() opens a full screen window with a round button in the Sense
+ * colours in the middle column, which starts or stops the capture when
+ * clicked. The time of the last start and stop is recorded with
+ * System.nanoTime(), so the latency is the difference to the trigger time.
+ */
+public class SimulatedCaptureServer {
+	
+	private ServerSocket serverSocket = null;
+	private Thread acceptThread = null;
+	private JFrame window = null;
+	private JPanel button = null;
+	
+	private volatile boolean capturing = false;
+	private volatile long lastStartTime = 0;
+	private volatile long lastStopTime = 0;
+	private AtomicLong captures = new AtomicLong();
+	
+	/// Starts listening on the given port of the loopback interface, 0 selects a free port.
+	public void start(int port) throws IOException {
+		serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		acceptThread = new Thread("Capture server") {
+			public void run() {
+				while (!serverSocket.isClosed()) {
+					try {
+						final Socket socket = serverSocket.accept();
+						Thread connectionThread = new Thread("Capture connection") {
+							public void run() {
+								serve(socket);
+							}
+						};
+						connectionThread.setDaemon(true);
+						connectionThread.start();
+					} catch (IOException e) {
+					}
+				}
+			}
+		};
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+	
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+	
+	/// Shows the window with the capture button, must be called on the event dispatch thread.
+	public void showWindow() {
+		button = new JPanel() {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected void paintComponent(Graphics g) {
+				super.paintComponent(g);
+				int size = getHeight() / 12;
+				g.setColor(capturing ? RobotScanSoftware.SENSE_COLOR_ACTIVE : RobotScanSoftware.SENSE_COLOR_DEFAULT);
+				g.fillOval(getWidth() / 2 - size / 2, getHeight() * 2 / 3, size, size);
+			}
+		};
+		button.setBackground(new Color(38, 38, 38));
+		button.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mousePressed(MouseEvent e) {
+				if (capturing) {
+					stopCapture();
+				}
+				else {
+					startCapture();
+				}
+			}
+		});
+		
+		Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
+		window = new JFrame("Capture");
+		window.setUndecorated(true);
+		window.setContentPane(button);
+		window.setBounds(0, 0, screenSize.width, screenSize.height);
+		window.setVisible(true);
+	}
+	
+	public void close() {
+		try {
+			if (serverSocket != null) {
+				serverSocket.close();
+			}
+		} catch (IOException e) {
+		}
+		if (window != null) {
+			window.dispose();
+		}
+	}
+	
+	public boolean isCapturing() {
+		return capturing;
+	}
+	
+	/// Returns the System.nanoTime() at which the last capture started.
+	public long getLastStartTime() {
+		return lastStartTime;
+	}
+	
+	/// Returns the System.nanoTime() at which the last capture stopped.
+	public long getLastStopTime() {
+		return lastStopTime;
+	}
+	
+	public long getCaptures() {
+		return captures.get();
+	}
+	
+	private void serve(Socket socket) {
+		try {
+			socket.setTcpNoDelay(true);
+			BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			OutputStream output = socket.getOutputStream();
+			String command;
+			while ((command = input.readLine()) != null) {
+				String reply;
+				if ("START".equals(command)) {
+					reply = startCapture() ? "OK" : "ERROR Capture already running.";
+				}
+				else if ("STOP".equals(command)) {
+					reply = stopCapture() ? "OK" : "ERROR Capture not running.";
+				}
+				else if ("STATUS".equals(command)) {
+					reply = capturing ? "CAPTURING" : "IDLE";
+				}
+				else {
+					reply = "ERROR Unknown command " + command + ".";
+				}
+				output.write((reply + "\n").getBytes(StandardCharsets.US_ASCII));
+				output.flush();
+			}
+		} catch (IOException e) {
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+	
+	private synchronized boolean startCapture() {
+		if (capturing) {
+			return false;
+		}
+		lastStartTime = System.nanoTime();
+		capturing = true;
+		captures.incrementAndGet();
+		repaint();
+		return true;
+	}
+	
+	private synchronized boolean stopCapture() {
+		if (!capturing) {
+			return false;
+		}
+		lastStopTime = System.nanoTime();
+		capturing = false;
+		repaint();
+		return true;
+	}
+	
+	private void repaint() {
+		if (button != null) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					button.repaint();
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package at.fhhgb.scanner;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/// Simulates the network link between PC and brick. Every remote call is split into a request and a response half, each taking half of the round trip time.
+/**
+ * A command takes effect on the simulated brick after the request half, so the
+ * timing of motor starts and stops is the same as on a real brick.
+ */
+public class SimulatedLink {
+	
+	/// Default round trip time of a remote call in ms, measured with the brick connected via Wi-Fi.
+	public static final int DEFAULT_LATENCY = 12;
+	
+	/// Default jitter in ms that is randomly added to or subtracted from the round trip time.
+	public static final int DEFAULT_JITTER  = 4;
+	
+	private volatile int latency = DEFAULT_LATENCY;
+	private volatile int jitter = DEFAULT_JITTER;
+	private volatile double failureRate = 0;
+	private volatile boolean connected = true;
+	
+	private AtomicLong calls = new AtomicLong();
+	private AtomicLong failures = new AtomicLong();
+	
+	public int getLatency() {
+		return latency;
+	}
+	
+	public void setLatency(int latency) {
+		this.latency = Math.max(0, latency);
+	}
+	
+	public int getJitter() {
+		return jitter;
+	}
+	
+	public void setJitter(int jitter) {
+		this.jitter = Math.max(0, jitter);
+	}
+	
+	public double getFailureRate() {
+		return failureRate;
+	}
+	
+	/// Sets the probability (0 to 1) of a remote call failing with a RemoteException.
+	public void setFailureRate(double failureRate) {
+		this.failureRate = Math.min(1, Math.max(0, failureRate));
+	}
+	
+	public boolean isConnected() {
+		return connected;
+	}
+	
+	/// Simulates a dropped (false) or restored (true) connection. While dropped every remote call fails.
+	public void setConnected(boolean connected) {
+		this.connected = connected;
+	}
+	
+	public long getCalls() {
+		return calls.get();
+	}
+	
+	public long getFailures() {
+		return failures.get();
+	}
+	
+	/// Sends the request half of a remote call. Throws if the call fails.
+	public void request() throws RemoteException {
+		calls.incrementAndGet();
+		delay();
+		if (!connected || (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate)) {
+			failures.incrementAndGet();
+			throw new RemoteException("Simulated remote call failure");
+		}
+	}
+	
+	/// Receives the response half of a remote call.
+	public void response() {
+		delay();
+	}
+	
+	/// Performs a full round trip.
+	public void roundTrip() throws RemoteException {
+		request();
+		response();
+	}
+	
+	private void delay() {
+		int j = jitter;
+		long nanos = latency * 1000000L / 2;
+		if (j > 0) {
+			nanos += ThreadLocalRandom.current().nextLong(-j * 1000000L, j * 1000000L + 1) / 2;
+		}
+		if (nanos > 0) {
+			try {
+				Thread.sleep(nanos / 1000000, (int)(nanos % 1000000));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
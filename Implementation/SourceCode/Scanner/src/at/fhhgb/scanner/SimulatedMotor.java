@@ -0,0 +1,339 @@
+package at.fhhgb.scanner;
+
+import java.rmi.RemoteException;
+import lejos.robotics.RegulatedMotorListener;
+import lejos.remote.ev3.RMIRegulatedMotor;
+
+/// Simulated large regulated motor of a SimulatedBrick. The tacho count is calculated from speed and time, acceleration is not simulated.
+public class SimulatedMotor implements RMIRegulatedMotor {
+	
+	/// Maximum speed in degrees per second of an EV3 large motor at full battery.
+	public static final float MAX_SPEED = 740f;
+	
+	private SimulatedBrick brick = null;
+	private SimulatedLink link = null;
+	private String port = null;
+	
+	private RegulatedMotorListener listener = null;
+	private boolean closed = false;
+	private int speed = 360;
+	private int acceleration = 6000;
+	
+	//Movement state, direction is 1 (forward), -1 (backward) or 0 (stopped)
+	private int direction = 0;
+	private int tachoBase = 0;
+	private long movingSince = 0;
+	private boolean limited = false;
+	private int limitAngle = 0;
+	
+	private volatile long lastStartTime = -1;
+	private volatile long lastStopTime = -1;
+	
+	SimulatedMotor(SimulatedBrick brick, SimulatedLink link, String port) {
+		this.brick = brick;
+		this.link = link;
+		this.port = port;
+	}
+	
+	public String getPort() {
+		return port;
+	}
+	
+	/// Returns the System.nanoTime() at which the motor was last started on the brick.
+	public long getLastStartTime() {
+		return lastStartTime;
+	}
+	
+	/// Returns the System.nanoTime() at which the motor was last stopped on the brick.
+	public long getLastStopTime() {
+		return lastStopTime;
+	}
+	
+	/// Returns the current tacho count without a simulated remote call.
+	public synchronized int peekTachoCount() {
+		return tacho(System.nanoTime());
+	}
+	
+	/// Returns the current direction without a simulated remote call.
+	public synchronized int peekDirection() {
+		settle(System.nanoTime());
+		return direction;
+	}
+	
+	@Override
+	public synchronized void addListener(RegulatedMotorListener listener) throws RemoteException {
+		request();
+		this.listener = listener;
+		link.response();
+	}
+	
+	@Override
+	public synchronized RegulatedMotorListener removeListener() throws RemoteException {
+		request();
+		RegulatedMotorListener old = listener;
+		listener = null;
+		link.response();
+		return old;
+	}
+	
+	@Override
+	public void stop(boolean immediateReturn) throws RemoteException {
+		request();
+		halt();
+		link.response();
+	}
+	
+	@Override
+	public void flt(boolean immediateReturn) throws RemoteException {
+		request();
+		halt();
+		link.response();
+	}
+	
+	@Override
+	public void waitComplete() throws RemoteException {
+		request();
+		awaitLimit();
+		link.response();
+	}
+	
+	@Override
+	public void rotate(int angle, boolean immediateReturn) throws RemoteException {
+		request();
+		synchronized (this) {
+			rotateToLimit(tacho(System.nanoTime()) + angle);
+		}
+		if (!immediateReturn) {
+			awaitLimit();
+		}
+		link.response();
+	}
+	
+	@Override
+	public void rotate(int angle) throws RemoteException {
+		rotate(angle, false);
+	}
+	
+	@Override
+	public void rotateTo(int limitAngle) throws RemoteException {
+		rotateTo(limitAngle, false);
+	}
+	
+	@Override
+	public void rotateTo(int limitAngle, boolean immediateReturn) throws RemoteException {
+		request();
+		synchronized (this) {
+			rotateToLimit(limitAngle);
+		}
+		if (!immediateReturn) {
+			awaitLimit();
+		}
+		link.response();
+	}
+	
+	@Override
+	public synchronized int getLimitAngle() throws RemoteException {
+		request();
+		link.response();
+		return limitAngle;
+	}
+	
+	@Override
+	public void setSpeed(int speed) throws RemoteException {
+		request();
+		synchronized (this) {
+			long now = System.nanoTime();
+			tachoBase = tacho(now);
+			movingSince = now;
+			this.speed = Math.abs(speed);
+		}
+		link.response();
+	}
+	
+	@Override
+	public synchronized int getSpeed() throws RemoteException {
+		request();
+		link.response();
+		return speed;
+	}
+	
+	@Override
+	public float getMaxSpeed() throws RemoteException {
+		request();
+		link.response();
+		return MAX_SPEED;
+	}
+	
+	@Override
+	public boolean isStalled() throws RemoteException {
+		request();
+		link.response();
+		return false;
+	}
+	
+	@Override
+	public void setStallThreshold(int error, int time) throws RemoteException {
+		request();
+		link.response();
+	}
+	
+	@Override
+	public synchronized void setAcceleration(int acceleration) throws RemoteException {
+		request();
+		this.acceleration = acceleration;
+		link.response();
+	}
+	
+	@Override
+	public void close() throws RemoteException {
+		request();
+		synchronized (this) {
+			settle(System.nanoTime());
+			direction = 0;
+			closed = true;
+		}
+		brick.release(port);
+		link.response();
+	}
+	
+	@Override
+	public void forward() throws RemoteException {
+		request();
+		move(1);
+		link.response();
+	}
+	
+	@Override
+	public void backward() throws RemoteException {
+		request();
+		move(-1);
+		link.response();
+	}
+	
+	@Override
+	public synchronized void resetTachoCount() throws RemoteException {
+		request();
+		long now = System.nanoTime();
+		tachoBase = 0;
+		movingSince = now;
+		limitAngle = 0;
+		link.response();
+	}
+	
+	@Override
+	public int getTachoCount() throws RemoteException {
+		request();
+		int tacho;
+		synchronized (this) {
+			tacho = tacho(System.nanoTime());
+		}
+		link.response();
+		return tacho;
+	}
+	
+	@Override
+	public boolean isMoving() throws RemoteException {
+		request();
+		boolean moving;
+		synchronized (this) {
+			settle(System.nanoTime());
+			moving = direction != 0;
+		}
+		link.response();
+		return moving;
+	}
+	
+	private void request() throws RemoteException {
+		link.request();
+		synchronized (this) {
+			if (closed) {
+				throw new RemoteException("Motor on port " + port + " is closed");
+			}
+		}
+	}
+	
+	private synchronized void move(int direction) {
+		long now = System.nanoTime();
+		tachoBase = tacho(now);
+		movingSince = now;
+		if (this.direction == 0) {
+			lastStartTime = now;
+		}
+		this.direction = direction;
+		limited = false;
+	}
+	
+	private synchronized void halt() {
+		long now = System.nanoTime();
+		settle(now);
+		if (direction != 0) {
+			tachoBase = tacho(now);
+			movingSince = now;
+			direction = 0;
+			lastStopTime = now;
+		}
+		limited = false;
+	}
+	
+	private void rotateToLimit(int limitAngle) {
+		long now = System.nanoTime();
+		tachoBase = tacho(now);
+		movingSince = now;
+		this.limitAngle = limitAngle;
+		if (limitAngle == tachoBase) {
+			direction = 0;
+			limited = false;
+			return;
+		}
+		if (direction == 0) {
+			lastStartTime = now;
+		}
+		direction = limitAngle > tachoBase ? 1 : -1;
+		limited = true;
+	}
+	
+	private void awaitLimit() {
+		while (true) {
+			long remaining;
+			synchronized (this) {
+				long now = System.nanoTime();
+				settle(now);
+				if (direction == 0 || !limited || speed == 0) {
+					return;
+				}
+				remaining = Math.abs(limitAngle - tacho(now)) * 1000000000L / speed;
+			}
+			try {
+				Thread.sleep(Math.max(1, remaining / 1000000));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+	
+	//Stops the motor if it reached its rotate target
+	private void settle(long now) {
+		if (limited && direction != 0) {
+			int tacho = tacho(now);
+			if (tacho == limitAngle) {
+				tachoBase = limitAngle;
+				movingSince = now;
+				direction = 0;
+				limited = false;
+				lastStopTime = now;
+			}
+		}
+	}
+	
+	private int tacho(long now) {
+		if (direction == 0) {
+			return tachoBase;
+		}
+		int tacho = tachoBase + direction * (int)(speed * (now - movingSince) / 1000000000L);
+		if (limited && (direction > 0 ? tacho >= limitAngle : tacho <= limitAngle)) {
+			tacho = limitAngle;
+		}
+		return tacho;
+	}
+}
@@ -0,0 +1,54 @@
+package at.fhhgb.scanner;
+
+import java.rmi.RemoteException;
+import lejos.hardware.Power;
+import lejos.hardware.port.PortException;
+
+/// Simulated battery of a SimulatedBrick.
+public class SimulatedPower implements Power {
+	
+	/// Voltage of a fully charged battery pack.
+	public static final float DEFAULT_VOLTAGE = 8.2f;
+	
+	private SimulatedLink link = null;
+	private volatile float voltage = DEFAULT_VOLTAGE;
+	
+	public SimulatedPower(SimulatedLink link) {
+		this.link = link;
+	}
+	
+	public void setVoltage(float voltage) {
+		this.voltage = voltage;
+	}
+	
+	@Override
+	public int getVoltageMilliVolt() {
+		return (int)(getVoltage() * 1000);
+	}
+	
+	@Override
+	public float getVoltage() {
+		call();
+		return voltage;
+	}
+	
+	@Override
+	public float getBatteryCurrent() {
+		call();
+		return 0;
+	}
+	
+	@Override
+	public float getMotorCurrent() {
+		call();
+		return 0;
+	}
+	
+	private void call() {
+		try {
+			link.roundTrip();
+		} catch (RemoteException e) {
+			throw new PortException(e);
+		}
+	}
+}
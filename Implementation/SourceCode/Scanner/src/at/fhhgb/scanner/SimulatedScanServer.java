@@ -0,0 +1,278 @@
+package at.fhhgb.scanner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/// A stand-in for the scan server of the brick on the loopback interface, used to test BrickScanClient and to load-test the protocol without hardware.
+/**
+ * Implements the commands and events of ScanServer in ScannerEV3 with the
+ * same timing. The motors are simulated, the tacho count follows from the
+ * speed in degrees per second and the time since the start. Several
+ * connections may be open at the same time, events are sent to all of them.
+ */
+public class SimulatedScanServer {
+
+	public enum State {
+		IDLE, ARMED, COUNTDOWN, SCANNING
+	}
+
+	private static final int PROGRESS_INTERVAL = 100;
+	private static final int POLL_INTERVAL = 10;
+
+	private ServerSocket serverSocket = null;
+	private final Set<OutputStream> outputs = ConcurrentHashMap.newKeySet();
+
+	//Guarded by this
+	private State state = State.IDLE;
+	private int speed = 0;
+	private int duration = 0;
+	private long startTime = 0;
+	private long stopTime = 0;
+
+	private volatile boolean stopRequested = false;
+	private AtomicLong commands = new AtomicLong();
+	private AtomicLong scans = new AtomicLong();
+
+	/// Starts listening on the given port of the loopback interface, 0 selects a free port.
+	public void start(int port) throws IOException {
+		serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		Thread acceptThread = new Thread("Scan server") {
+			public void run() {
+				while (!serverSocket.isClosed()) {
+					try {
+						final Socket socket = serverSocket.accept();
+						Thread connectionThread = new Thread("Scan server connection") {
+							public void run() {
+								serve(socket);
+							}
+						};
+						connectionThread.setDaemon(true);
+						connectionThread.start();
+					} catch (IOException e) {
+					}
+				}
+			}
+		};
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	public void close() {
+		stopRequested = true;
+		try {
+			if (serverSocket != null) {
+				serverSocket.close();
+			}
+		} catch (IOException e) {
+		}
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/// Returns the number of commands received.
+	public long getCommands() {
+		return commands.get();
+	}
+
+	/// Returns the number of scans started.
+	public long getScans() {
+		return scans.get();
+	}
+
+	/// Returns the System.nanoTime() at which the motors of the last scan started, 0 if none started.
+	public synchronized long getStartTime() {
+		return startTime;
+	}
+
+	private void serve(Socket socket) {
+		OutputStream output = null;
+		try {
+			socket.setTcpNoDelay(true);
+			BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			output = socket.getOutputStream();
+			outputs.add(output);
+			String line;
+			while ((line = input.readLine()) != null) {
+				commands.incrementAndGet();
+				String reply = execute(line.trim().split(" +"));
+				synchronized (output) {
+					output.write((reply + "\n").getBytes(StandardCharsets.US_ASCII));
+					output.flush();
+				}
+			}
+		} catch (IOException e) {
+		} finally {
+			if (output != null) {
+				outputs.remove(output);
+			}
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private String execute(String command[]) {
+		try {
+			if ("ARM".equals(command[0]) && command.length == 3) {
+				return arm(Integer.parseInt(command[1]), Integer.parseInt(command[2])) ? "OK" : "ERROR Cannot arm while scanning.";
+			}
+			else if ("SCAN".equals(command[0]) && command.length == 2) {
+				return scan(Integer.parseInt(command[1])) ? "OK" : "ERROR Not armed.";
+			}
+			else if ("STOP".equals(command[0])) {
+				stopRequested = true;
+				return "OK";
+			}
+			else if ("STATUS".equals(command[0])) {
+				synchronized (this) {
+					return "STATUS " + state + " " + getTachoCount() + " " + getElapsed() + " " + duration;
+				}
+			}
+		} catch (NumberFormatException e) {
+			return "ERROR Invalid number.";
+		}
+		return "ERROR Unknown command " + command[0] + ".";
+	}
+
+	private synchronized boolean arm(int speed, int distance) {
+		if (state == State.COUNTDOWN || state == State.SCANNING || speed <= 0 || distance <= 0) {
+			return false;
+		}
+		this.speed = Math.max(ScannerConfiguration.MIN_SPEED, Math.min(ScannerConfiguration.MAX_SPEED, speed));
+		this.duration = distance / this.speed;
+		this.startTime = 0;
+		this.stopTime = 0;
+		state = State.ARMED;
+		return true;
+	}
+
+	private synchronized boolean scan(final int countdown) {
+		if (state != State.ARMED) {
+			return false;
+		}
+		stopRequested = false;
+		state = State.COUNTDOWN;
+		scans.incrementAndGet();
+		Thread scanThread = new Thread("Simulated scan") {
+			public void run() {
+				runScan(countdown);
+			}
+		};
+		scanThread.setDaemon(true);
+		scanThread.start();
+		return true;
+	}
+
+	//Runs in the scan thread, same timing as ScanServer.runScan
+	private void runScan(int countdown) {
+		long countdownStart = System.nanoTime();
+		int seconds = (countdown + 999) / 1000;
+
+		boolean stopped = false;
+		for (int i=0; i<seconds && !stopped; i++) {
+			stopped = !sleepUntil(countdownStart + TimeUnit.MILLISECONDS.toNanos(countdown - (seconds - i) * 1000L));
+			if (!stopped) {
+				send("EVENT COUNTDOWN " + (seconds - i));
+			}
+		}
+		stopped = stopped || !sleepUntil(countdownStart + TimeUnit.MILLISECONDS.toNanos(countdown));
+
+		if (!stopped) {
+			long startTime;
+			int duration;
+			synchronized (this) {
+				startTime = System.nanoTime();
+				this.startTime = startTime;
+				state = State.SCANNING;
+				duration = this.duration;
+			}
+			send("EVENT STARTED " + duration);
+
+			long end = startTime + TimeUnit.MILLISECONDS.toNanos(duration);
+			long nextProgress = startTime;
+			while (true) {
+				long now = System.nanoTime();
+				if (now - end >= 0) {
+					break;
+				}
+				if (now - nextProgress >= 0) {
+					synchronized (this) {
+						send("EVENT PROGRESS " + getTachoCount() + " " + getElapsed() + " " + duration);
+					}
+					nextProgress += TimeUnit.MILLISECONDS.toNanos(PROGRESS_INTERVAL);
+				}
+				if (!sleepUntil(Math.min(end, nextProgress))) {
+					stopped = true;
+					break;
+				}
+			}
+		}
+
+		String event;
+		synchronized (this) {
+			stopTime = System.nanoTime();
+			event = (stopped ? "EVENT STOPPED " : "EVENT DONE ") + getTachoCount() + " " + getElapsed();
+			state = State.IDLE;
+		}
+		send(event);
+	}
+
+	private boolean sleepUntil(long time) {
+		while (!stopRequested) {
+			long remaining = time - System.nanoTime();
+			if (remaining <= 0) {
+				return true;
+			}
+			try {
+				Thread.sleep(Math.max(1, Math.min(POLL_INTERVAL, TimeUnit.NANOSECONDS.toMillis(remaining))));
+			} catch (InterruptedException e) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	//Guarded by this
+	private long getElapsed() {
+		if (startTime == 0) {
+			return 0;
+		}
+		return TimeUnit.NANOSECONDS.toMillis((stopTime != 0 ? stopTime : System.nanoTime()) - startTime);
+	}
+
+	//Guarded by this
+	private long getTachoCount() {
+		return getElapsed() * speed / 1000;
+	}
+
+	private void send(String line) {
+		byte data[] = (line + "\n").getBytes(StandardCharsets.US_ASCII);
+		for (OutputStream output : outputs) {
+			synchronized (output) {
+				try {
+					output.write(data);
+					output.flush();
+				} catch (IOException e) {
+					outputs.remove(output);
+				}
+			}
+		}
+	}
+}
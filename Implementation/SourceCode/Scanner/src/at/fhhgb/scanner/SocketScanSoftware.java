@@ -0,0 +1,139 @@
+package at.fhhgb.scanner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/// Starts and stops the capture over a local TCP command channel instead of mouse clicks. Works without a display.
+/**
+ * The protocol is line based: the commands STATUS, START and STOP are answered
+ * with a single line, OK or IDLE/CAPTURING for STATUS, ERROR followed by a
+ * message otherwise. The connection is kept open between commands and opened
+ * again once if it broke; START is only sent again if it could not be
+ * written, as the capture may have started already. SimulatedCaptureServer
+ * implements the other side.
+ */
+public class SocketScanSoftware implements ScanSoftware {
+	
+	public static final int DEFAULT_PORT = 5577;
+	
+	private static final int CONNECT_TIMEOUT = 1000;
+	private static final int READ_TIMEOUT = 2000;
+	
+	private final String host;
+	private final int port;
+	
+	private Socket socket = null;
+	private OutputStream output = null;
+	private BufferedReader input = null;
+	private LatencyRecorder roundTrip = new LatencyRecorder();
+	
+	public SocketScanSoftware(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+	
+	/// Creates the channel from an address in the form host:port or host.
+	public static SocketScanSoftware fromAddress(String address) {
+		int separator = address.lastIndexOf(':');
+		if (separator == -1) {
+			return new SocketScanSoftware(address, DEFAULT_PORT);
+		}
+		return new SocketScanSoftware(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1)));
+	}
+	
+	@Override
+	public boolean isRunning() {
+		String reply = send("STATUS", true);
+		return reply != null && !reply.startsWith("ERROR");
+	}
+	
+	/// Opens the connection.
+	@Override
+	public void prepare() {
+		send("STATUS", true);
+	}
+	
+	@Override
+	public boolean startCapture() {
+		return "OK".equals(send("START", false));
+	}
+	
+	@Override
+	public boolean stopCapture() {
+		return "OK".equals(send("STOP", true));
+	}
+	
+	@Override
+	public synchronized void close() {
+		disconnect();
+	}
+	
+	/// Returns the round trip times of the commands in nanoseconds.
+	public LatencyRecorder getRoundTrip() {
+		return roundTrip;
+	}
+	
+	//Returns the reply or null if the capture software is not reachable
+	//Only an idempotent command is sent again after it may have reached the other side
+	private synchronized String send(String command, boolean idempotent) {
+		for (int attempt=0; attempt<2; attempt++) {
+			boolean sent = false;
+			try {
+				if (socket == null) {
+					connect();
+				}
+				long start = System.nanoTime();
+				output.write((command + "\n").getBytes(StandardCharsets.US_ASCII));
+				output.flush();
+				sent = true;
+				String reply = input.readLine();
+				if (reply == null) {
+					throw new IOException("Connection closed.");
+				}
+				roundTrip.record(System.nanoTime() - start);
+				if (reply.startsWith("ERROR")) {
+					System.out.println("Scan software: " + reply);
+				}
+				return reply;
+			} catch (IOException e) {
+				disconnect();
+				if (sent && !idempotent) {
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+	
+	private void connect() throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(READ_TIMEOUT);
+			socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+			this.output = socket.getOutputStream();
+			this.input = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			this.socket = socket;
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+	
+	private void disconnect() {
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+		socket = null;
+		output = null;
+		input = null;
+	}
+}
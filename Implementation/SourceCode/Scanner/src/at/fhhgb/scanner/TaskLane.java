@@ -0,0 +1,172 @@
+package at.fhhgb.scanner;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/// A named executor with a fixed number of threads and a bounded queue, created by TaskScheduler.
+/**
+ * Tasks that do not fit into the queue are rejected instead of piling up.
+ * The lane records how long tasks waited in the queue and how long they ran.
+ * A failing task is reported and does not end the thread.
+ */
+public class TaskLane {
+	
+	private final String name;
+	private final int capacity;
+	private final ThreadPoolExecutor executor;
+	private final Set<Thread> running = ConcurrentHashMap.newKeySet();
+	
+	private final LatencyRecorder waitTime = new LatencyRecorder();
+	private final LatencyRecorder runTime = new LatencyRecorder();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private volatile int maxQueueDepth = 0;
+	
+	TaskLane(final String name, int threads, int capacity, final int priority) {
+		this.name = name;
+		this.capacity = capacity;
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+			private int n = 0;
+			
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name + "-" + (n++));
+				t.setDaemon(true);
+				t.setPriority(priority);
+				return t;
+			}
+		});
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	/// Queues the task. Returns false if the queue is full or the lane is closed.
+	public boolean execute(Runnable task) {
+		try {
+			executor.execute(new TimedTask(task, System.nanoTime()));
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			return false;
+		}
+		int depth = executor.getQueue().size();
+		if (depth > maxQueueDepth) {
+			maxQueueDepth = depth;
+		}
+		return true;
+	}
+	
+	/// Queues the task. If it is rejected the returned future is cancelled.
+	public <T> Future<T> submit(Callable<T> task) {
+		FutureTask<T> future = new FutureTask<>(task);
+		if (!execute(future)) {
+			future.cancel(false);
+		}
+		return future;
+	}
+	
+	/// Interrupts the tasks currently running, queued tasks are not affected.
+	public void interrupt() {
+		for (Thread t : running) {
+			t.interrupt();
+		}
+	}
+	
+	/// Removes all queued tasks and returns their number.
+	public int clear() {
+		int n = executor.getQueue().size();
+		executor.getQueue().clear();
+		return n;
+	}
+	
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+	
+	public int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+	
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	public int getActive() {
+		return running.size();
+	}
+	
+	public long getCompleted() {
+		return executor.getCompletedTaskCount();
+	}
+	
+	public long getRejected() {
+		return rejected.get();
+	}
+	
+	public long getFailed() {
+		return failed.get();
+	}
+	
+	/// Returns the time tasks waited in the queue in ns.
+	public LatencyRecorder getWaitTime() {
+		return waitTime;
+	}
+	
+	/// Returns the time tasks ran in ns.
+	public LatencyRecorder getRunTime() {
+		return runTime;
+	}
+	
+	@Override
+	public String toString() {
+		return name + ": active " + getActive() + ", queued " + getQueueDepth() + "/" + capacity + " (max " + maxQueueDepth + ")"
+				+ ", completed " + getCompleted() + ", rejected " + getRejected() + ", failed " + getFailed()
+				+ ", wait " + waitTime + ", run " + runTime;
+	}
+	
+	void shutdownNow() {
+		executor.shutdownNow();
+	}
+	
+	boolean awaitTermination(long timeout) throws InterruptedException {
+		return executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+	}
+	
+	private class TimedTask implements Runnable {
+		
+		private final Runnable task;
+		private final long queued;
+		
+		TimedTask(Runnable task, long queued) {
+			this.task = task;
+			this.queued = queued;
+		}
+		
+		@Override
+		public void run() {
+			Thread thread = Thread.currentThread();
+			long start = System.nanoTime();
+			waitTime.record(start - queued);
+			running.add(thread);
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				failed.incrementAndGet();
+				System.out.println("Task in " + name + " failed: " + e);
+			} finally {
+				running.remove(thread);
+				runTime.record(System.nanoTime() - start);
+			}
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package at.fhhgb.scanner;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/// Owns the background threads of the application as named TaskLanes and a timer for delayed and repeated tasks.
+/**
+ * The timer thread only hands tasks over to their lane, so a slow task never
+ * delays other timers. A repeated task whose lane is still full when it is due
+ * again is skipped for that period instead of queueing up. close() stops all
+ * lanes and waits for their threads.
+ */
+public class TaskScheduler {
+	
+	private final String name;
+	private final ScheduledThreadPoolExecutor timer;
+	
+	//Guarded by this
+	private final Map<String, TaskLane> lanes = new LinkedHashMap<>();
+	private boolean closed = false;
+	
+	public TaskScheduler(final String name) {
+		this.name = name;
+		this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name + " timer");
+				t.setDaemon(true);
+				t.setPriority(Thread.MAX_PRIORITY);
+				return t;
+			}
+		});
+		this.timer.setRemoveOnCancelPolicy(true);
+	}
+	
+	/// Creates a lane with the given number of threads, queue capacity and thread priority.
+	public synchronized TaskLane createLane(String name, int threads, int capacity, int priority) {
+		if (closed) {
+			throw new IllegalStateException("Scheduler is closed.");
+		}
+		if (lanes.containsKey(name)) {
+			throw new IllegalArgumentException("Lane " + name + " exists already.");
+		}
+		TaskLane lane = new TaskLane(this.name + " " + name, threads, capacity, priority);
+		lanes.put(name, lane);
+		return lane;
+	}
+	
+	public synchronized List<TaskLane> getLanes() {
+		return new ArrayList<>(lanes.values());
+	}
+	
+	/// Queues the task on the lane after the delay.
+	public ScheduledFuture<?> schedule(final TaskLane lane, final Runnable task, long delay, TimeUnit unit) {
+		return timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				lane.execute(task);
+			}
+		}, delay, unit);
+	}
+	
+	/// Queues the task on the lane every period, skipping periods in which the lane is full.
+	public ScheduledFuture<?> scheduleRepeated(final TaskLane lane, final Runnable task, long initialDelay, long period, TimeUnit unit) {
+		return timer.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				lane.execute(task);
+			}
+		}, initialDelay, period, unit);
+	}
+	
+	/// Stops the timer, interrupts all lanes and waits up to the timeout in ms for their threads to end.
+	public void close(long timeout) {
+		List<TaskLane> lanes;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			lanes = getLanes();
+		}
+		
+		timer.shutdownNow();
+		for (TaskLane lane : lanes) {
+			lane.shutdownNow();
+		}
+		long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		try {
+			for (TaskLane lane : lanes) {
+				long remaining = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+				if (!lane.awaitTermination(Math.max(0, remaining))) {
+					System.out.println(lane.getName() + " did not end in time.");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+	
+	/// Returns one line of metrics per lane.
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (TaskLane lane : getLanes()) {
+			if (builder.length() > 0) {
+				builder.append(System.lineSeparator());
+			}
+			builder.append(lane);
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,359 @@
+package at.fhhgb.scanner;
+
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.HashMap;
+import java.util.Map;
+
+/// Finds a Sense button on the screen by matching a template image. Unlike the colour search it copes with display scaling and theme changes.
+/**
+ * The template is matched at several display scales using normalised
+ * correlation, the same score as TM_CCOEFF_NORMED of OpenCV. Each scale is
+ * first searched on a grey image downscaled until the template is about
+ * COARSE_SIZE pixels small, then the best position is refined at full
+ * resolution. The region around the last match is searched first; only if
+ * the button is not found there the whole screen is searched. Plain Java, so
+ * no native library has to be installed next to Sense.
+ */
+public class TemplateButtonDetector {
+	
+	/// Default minimum confidence of a match to count as found.
+	public static final double DEFAULT_MIN_CONFIDENCE = 0.8;
+	
+	/// Default display scales the template is matched at.
+	public static final double DEFAULT_SCALES[] = new double[] { 1.0, 1.25, 1.5, 2.0 };
+	
+	/// Smaller side of the template in the downscaled image of the coarse search.
+	private static final int COARSE_SIZE = 8;
+	
+	/// Margin around the last match searched first, in button sizes.
+	private static final int REGION_MARGIN = 1;
+	
+	private final Gray template;
+	private double minConfidence = DEFAULT_MIN_CONFIDENCE;
+	private double scales[] = DEFAULT_SCALES;
+	private Map<Double, Gray> scaledTemplates = new HashMap<>();
+	
+	//Last match in screen coordinates, guarded by this
+	private ButtonMatch lastMatch = null;
+	
+	/// Creates a detector for a template captured at 100% display scaling.
+	public TemplateButtonDetector(BufferedImage template) {
+		this.template = Gray.of(template);
+	}
+	
+	/// Creates a detector for the screen area of the given size around a point, e.g. a button just found by its colour. Returns null if the area is not entirely on the screen.
+	public static TemplateButtonDetector capture(Robot bot, Rectangle screen, int x, int y, int size) {
+		Rectangle area = new Rectangle(x - size / 2, y - size / 2, size, size);
+		if (!screen.contains(area)) {
+			return null;
+		}
+		BufferedImage template = bot.createScreenCapture(area);
+		TemplateButtonDetector detector = new TemplateButtonDetector(template);
+		detector.lastMatch = new ButtonMatch(x, y, size, size, 1, 1);
+		return detector;
+	}
+	
+	public double getMinConfidence() {
+		return minConfidence;
+	}
+	
+	public void setMinConfidence(double minConfidence) {
+		this.minConfidence = minConfidence;
+	}
+	
+	public synchronized void setScales(double scales[]) {
+		this.scales = scales.clone();
+		lastMatch = null;
+	}
+	
+	public synchronized ButtonMatch getLastMatch() {
+		return lastMatch;
+	}
+	
+	/// Searches the given screen area, starting with the region of the last match. Returns the best match, which may be below the minimum confidence, or null.
+	public ButtonMatch detect(Robot bot, Rectangle screen) {
+		ButtonMatch last = getLastMatch();
+		if (last != null) {
+			Rectangle region = getRegion(last).intersection(screen);
+			if (!region.isEmpty()) {
+				BufferedImage capture = bot.createScreenCapture(region);
+				ButtonMatch match = detectInRegion(capture, region.x, region.y);
+				capture.flush();
+				if (match != null && match.getConfidence() >= minConfidence) {
+					return match;
+				}
+			}
+		}
+		
+		BufferedImage capture = bot.createScreenCapture(screen);
+		ButtonMatch match = detect(capture, screen.x, screen.y);
+		capture.flush();
+		return match;
+	}
+	
+	/// Searches a whole screenshot at all scales. Coordinates of the match are offset by the given values.
+	public ButtonMatch detect(BufferedImage screenShot, int offsetX, int offsetY) {
+		double searchScales[];
+		synchronized (this) {
+			searchScales = scales;
+		}
+		return match(screenShot, offsetX, offsetY, searchScales);
+	}
+	
+	/// Searches a region captured around the last match at the scale of the last match.
+	public ButtonMatch detectInRegion(BufferedImage region, int offsetX, int offsetY) {
+		ButtonMatch last = getLastMatch();
+		if (last == null) {
+			return detect(region, offsetX, offsetY);
+		}
+		return match(region, offsetX, offsetY, new double[] { last.getScale() });
+	}
+	
+	/// Returns the screen region searched first for the given match.
+	public Rectangle getRegion(ButtonMatch match) {
+		int marginX = match.getWidth() * REGION_MARGIN;
+		int marginY = match.getHeight() * REGION_MARGIN;
+		return new Rectangle(match.getX() - match.getWidth() / 2 - marginX, match.getY() - match.getHeight() / 2 - marginY, match.getWidth() + 2 * marginX, match.getHeight() + 2 * marginY);
+	}
+	
+	private ButtonMatch match(BufferedImage image, int offsetX, int offsetY, double searchScales[]) {
+		Gray screen = null;
+		Map<Integer, Gray> downscaled = new HashMap<>();
+		ButtonMatch best = null;
+		for (double scale : searchScales) {
+			Gray full = getScaledTemplate(scale);
+			if (full == null || full.width > image.getWidth() || full.height > image.getHeight()) {
+				continue;
+			}
+			
+			//Coarse search on the downscaled image
+			int downscale = Math.max(1, Math.min(full.width, full.height) / COARSE_SIZE);
+			Gray coarse = getScaledTemplate(scale / downscale);
+			if (screen == null) {
+				screen = Gray.of(image);
+			}
+			Gray gray = downscaled.get(downscale);
+			if (gray == null) {
+				gray = screen.downscale(downscale);
+				downscaled.put(downscale, gray);
+			}
+			if (coarse == null || coarse.width > gray.width || coarse.height > gray.height) {
+				continue;
+			}
+			int location[] = gray.bestMatch(coarse);
+			
+			//Refine at full resolution around the coarse position
+			int x = Math.max(0, location[0] * downscale - downscale);
+			int y = Math.max(0, location[1] * downscale - downscale);
+			int width = Math.min(image.getWidth() - x, full.width + 2 * downscale);
+			int height = Math.min(image.getHeight() - y, full.height + 2 * downscale);
+			if (width < full.width || height < full.height) {
+				continue;
+			}
+			Gray window = screen.crop(x, y, width, height);
+			int refined[] = window.bestMatch(full);
+			double confidence = window.score(full, refined[0], refined[1]);
+			if (best == null || confidence > best.getConfidence()) {
+				best = new ButtonMatch(offsetX + x + refined[0] + full.width / 2, offsetY + y + refined[1] + full.height / 2, full.width, full.height, confidence, scale);
+			}
+		}
+		
+		if (best != null && best.getConfidence() >= minConfidence) {
+			synchronized (this) {
+				lastMatch = best;
+			}
+		}
+		return best;
+	}
+	
+	private synchronized Gray getScaledTemplate(double factor) {
+		Gray scaled = scaledTemplates.get(factor);
+		if (scaled == null) {
+			int width = (int)Math.round(template.width * factor);
+			int height = (int)Math.round(template.height * factor);
+			if (width < 4 || height < 4) {
+				return null;
+			}
+			scaled = template.resize(width, height);
+			scaled.subtractMean();
+			scaledTemplates.put(factor, scaled);
+		}
+		return scaled;
+	}
+	
+	//Grey image as floats, either a search image with sums for the variance or a template with its mean subtracted
+	private static class Gray {
+		
+		final int width;
+		final int height;
+		final float data[];
+		double sums[] = null;
+		double squares[] = null;
+		double norm = 0;
+		
+		private Gray(int width, int height) {
+			this.width = width;
+			this.height = height;
+			this.data = new float[width * height];
+		}
+		
+		//Converts to grey with the weights of the luma
+		static Gray of(BufferedImage image) {
+			int width = image.getWidth();
+			int height = image.getHeight();
+			Gray gray = new Gray(width, height);
+			WritableRaster raster = image.getRaster();
+			if (image.getType() == BufferedImage.TYPE_INT_RGB && raster.getParent() == null && ((SinglePixelPackedSampleModel)raster.getSampleModel()).getScanlineStride() == width) {
+				//Read packed pixels directly, unless the image is a part of a larger one
+				DataBufferInt buffer = (DataBufferInt)image.getRaster().getDataBuffer();
+				int pixels[] = buffer.getData();
+				int offset = buffer.getOffset();
+				for (int i=0; i<gray.data.length; i++) {
+					gray.data[i] = luma(pixels[offset + i]);
+				}
+				return gray;
+			}
+			int row[] = new int[width];
+			for (int y=0; y<height; y++) {
+				image.getRGB(0, y, width, 1, row, 0, width);
+				for (int x=0; x<width; x++) {
+					gray.data[y * width + x] = luma(row[x]);
+				}
+			}
+			return gray;
+		}
+		
+		private static int luma(int rgb) {
+			return (((rgb >> 16) & 0xff) * 77 + ((rgb >> 8) & 0xff) * 150 + (rgb & 0xff) * 29) >> 8;
+		}
+		
+		//Averages blocks of downscale x downscale pixels
+		Gray downscale(int downscale) {
+			Gray downscaled = new Gray(width / downscale, height / downscale);
+			float blockSize = downscale * downscale;
+			for (int j=0; j<downscaled.height; j++) {
+				int base = j * downscaled.width;
+				for (int dy=0; dy<downscale; dy++) {
+					int row = (j * downscale + dy) * width;
+					for (int i=0; i<downscaled.width * downscale; i++) {
+						downscaled.data[base + i / downscale] += data[row + i];
+					}
+				}
+				for (int i=0; i<downscaled.width; i++) {
+					downscaled.data[base + i] /= blockSize;
+				}
+			}
+			return downscaled;
+		}
+		
+		Gray crop(int x, int y, int newWidth, int newHeight) {
+			Gray cropped = new Gray(newWidth, newHeight);
+			for (int j=0; j<newHeight; j++) {
+				System.arraycopy(data, (y + j) * width + x, cropped.data, j * newWidth, newWidth);
+			}
+			return cropped;
+		}
+		
+		//Averages the pixels covered by each pixel of the result, or repeats them when enlarging
+		Gray resize(int newWidth, int newHeight) {
+			Gray resized = new Gray(newWidth, newHeight);
+			for (int j=0; j<newHeight; j++) {
+				int y0 = j * height / newHeight;
+				int y1 = Math.max(y0 + 1, (j + 1) * height / newHeight);
+				for (int i=0; i<newWidth; i++) {
+					int x0 = i * width / newWidth;
+					int x1 = Math.max(x0 + 1, (i + 1) * width / newWidth);
+					float sum = 0;
+					for (int y=y0; y<y1; y++) {
+						for (int x=x0; x<x1; x++) {
+							sum += data[y * width + x];
+						}
+					}
+					resized.data[j * newWidth + i] = sum / ((y1 - y0) * (x1 - x0));
+				}
+			}
+			return resized;
+		}
+		
+		void subtractMean() {
+			double mean = 0;
+			for (float value : data) {
+				mean += value;
+			}
+			mean /= data.length;
+			norm = 0;
+			for (int i=0; i<data.length; i++) {
+				data[i] -= mean;
+				norm += data[i] * data[i];
+			}
+		}
+		
+		//Returns x and y of the best match of the template
+		int[] bestMatch(Gray template) {
+			int bestX = 0;
+			int bestY = 0;
+			double best = -2;
+			for (int y=0; y<=height-template.height; y++) {
+				for (int x=0; x<=width-template.width; x++) {
+					double score = score(template, x, y);
+					if (score > best) {
+						best = score;
+						bestX = x;
+						bestY = y;
+					}
+				}
+			}
+			return new int[] { bestX, bestY };
+		}
+		
+		//Normalised correlation of the template at x/y from -1 to 1, 0 if either is flat
+		double score(Gray template, int x, int y) {
+			if (sums == null) {
+				integrate();
+			}
+			float product = 0;
+			for (int j=0; j<template.height; j++) {
+				int row = (y + j) * width + x;
+				int templateRow = j * template.width;
+				for (int i=0; i<template.width; i++) {
+					product += data[row + i] * template.data[templateRow + i];
+				}
+			}
+			int n = template.width * template.height;
+			double sum = area(sums, x, y, template.width, template.height);
+			double variance = area(squares, x, y, template.width, template.height) - sum * sum / n;
+			if (variance * template.norm <= 1e-6) {
+				return 0;
+			}
+			return product / Math.sqrt(variance * template.norm);
+		}
+		
+		//Integral images of the values and their squares, so the variance under the template takes four lookups
+		private void integrate() {
+			sums = new double[(width + 1) * (height + 1)];
+			squares = new double[(width + 1) * (height + 1)];
+			for (int y=0; y<height; y++) {
+				double rowSum = 0;
+				double rowSquares = 0;
+				for (int x=0; x<width; x++) {
+					float value = data[y * width + x];
+					rowSum += value;
+					rowSquares += value * value;
+					int index = (y + 1) * (width + 1) + x + 1;
+					sums[index] = sums[index - width - 1] + rowSum;
+					squares[index] = squares[index - width - 1] + rowSquares;
+				}
+			}
+		}
+		
+		private double area(double integral[], int x, int y, int w, int h) {
+			int stride = width + 1;
+			return integral[(y + h) * stride + x + w] - integral[y * stride + x + w] - integral[(y + h) * stride + x] + integral[y * stride + x];
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package at.fhhgb.scanner;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/// Runs the JMH benchmarks of the scanner against a SimulatedBrick.
+/**
+ * Reports throughput, percentile latencies (sample time mode) and allocation
+ * rate (GC profiler). An optional argument selects the benchmarks by regular
+ * expression, e.g. "MotorBenchmark".
+ * 
+ * Requires jmh-core-1.37.jar, jmh-generator-annprocess-1.37.jar,
+ * jopt-simple-5.0.4.jar and commons-math3-3.6.1.jar in the lib folder.
+ * WindowBenchmark needs a display, on Linux run it inside Xvfb.
+ */
+public class BenchmarkApp {
+
+	public static void main(String[] args) throws RunnerException {
+		ChainedOptionsBuilder builder = new OptionsBuilder()
+				.mode(Mode.Throughput)
+				.mode(Mode.SampleTime)
+				.addProfiler(GCProfiler.class)
+				.forks(1)
+				.warmupIterations(3)
+				.measurementIterations(5);
+		
+		if (args.length > 0) {
+			builder.include(args[0]);
+		}
+		else {
+			builder.include("at\\.fhhgb\\.scanner\\..*Benchmark");
+		}
+		
+		Options options = builder.build();
+		new Runner(options).run();
+	}
+}
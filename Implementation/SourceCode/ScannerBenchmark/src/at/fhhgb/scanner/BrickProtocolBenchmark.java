@@ -0,0 +1,103 @@
+package at.fhhgb.scanner;
+
+import java.io.IOException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lejos.remote.ev3.RMIRegulatedMotor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/// Compares the latency of motor calls over Java RMI and over the binary protocol of BinaryBrick on the loopback interface.
+/**
+ * Both transports call the motors of the same SimulatedBrick with a link
+ * without latency, so only the transport is measured. For RMI the simulated
+ * motors are exported with UnicastRemoteObject, for the binary protocol they
+ * are served by BinaryBrickServer. Sample time mode reports p50 and p99.
+ * groupTacho reads both motors through a MotorGroup, i.e. two calls in
+ * flight at the same time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BrickProtocolBenchmark {
+	
+	@Param({ "rmi", "binary" })
+	public String transport;
+	
+	private SimulatedBrick simulatedBrick = null;
+	private BinaryBrickServer server = null;
+	private BinaryBrick binaryBrick = null;
+	private List<RMIRegulatedMotor> exported = new ArrayList<>();
+	private RMIRegulatedMotor motor = null;
+	private MotorGroup motors = null;
+	
+	@Setup
+	public void setup() throws IOException {
+		SimulatedLink link = new SimulatedLink();
+		link.setLatency(0);
+		link.setJitter(0);
+		simulatedBrick = new SimulatedBrick(link);
+		
+		List<RMIRegulatedMotor> motorList = new ArrayList<>();
+		if ("rmi".equals(transport)) {
+			for (String port : ScannerConfiguration.DEFAULT_PORTS_MOTORS) {
+				RMIRegulatedMotor simulated = simulatedBrick.createRegulatedMotor(port, 'L');
+				exported.add(simulated);
+				motorList.add((RMIRegulatedMotor)UnicastRemoteObject.exportObject(simulated, 0));
+			}
+		}
+		else {
+			server = new BinaryBrickServer(simulatedBrick);
+			server.start(0);
+			binaryBrick = new BinaryBrick("localhost", server.getPort());
+			for (String port : ScannerConfiguration.DEFAULT_PORTS_MOTORS) {
+				motorList.add(binaryBrick.createRegulatedMotor(port, 'L'));
+			}
+		}
+		motor = motorList.get(0);
+		motors = new MotorGroup(motorList);
+	}
+	
+	@TearDown
+	public void tearDown() throws RemoteException {
+		motors.close();
+		for (RMIRegulatedMotor simulated : exported) {
+			try {
+				UnicastRemoteObject.unexportObject(simulated, true);
+			} catch (NoSuchObjectException e) {
+			}
+		}
+		if (binaryBrick != null) {
+			System.out.println();
+			System.out.println("Round trip: " + binaryBrick.getRoundTrip() + ", max in flight " + binaryBrick.getMaxInFlight());
+			binaryBrick.close();
+			server.close();
+		}
+	}
+	
+	@Benchmark
+	public int tacho() throws RemoteException {
+		return motor.getTachoCount();
+	}
+	
+	@Benchmark
+	public void setSpeed() throws RemoteException {
+		motor.setSpeed(200);
+	}
+	
+	@Benchmark
+	public int groupTacho() throws RemoteException {
+		return motors.getTachoCount();
+	}
+}
@@ -0,0 +1,59 @@
+package at.fhhgb.scanner;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/// Measures the Sense button search of SenseButtonLocator on synthetic screenshots.
+/**
+ * The screenshot has the Sense background colour and a button in the default
+ * colour at two thirds of the screen height, as in the Sense scan view.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ColorSearchBenchmark {
+	
+	@Param({ "1920x1080", "3840x2160" })
+	public String resolution;
+	
+	private BufferedImage screenShot = null;
+	private int x = 0;
+	
+	@Setup
+	public void setup() {
+		String size[] = resolution.split("x");
+		int width = Integer.parseInt(size[0]);
+		int height = Integer.parseInt(size[1]);
+		screenShot = createScreenShot(width, height);
+		x = width / 2;
+	}
+	
+	@Benchmark
+	public int getYWithColorFound() {
+		return SenseButtonLocator.getYWithColor(screenShot, x, RobotScanSoftware.SENSE_COLOR_DEFAULT.getRGB(), SenseButtonLocator.DEFAULT_TOLERANCE);
+	}
+	
+	@Benchmark
+	public int getYWithColorMissing() {
+		return SenseButtonLocator.getYWithColor(screenShot, x, RobotScanSoftware.SENSE_COLOR_ACTIVE.getRGB(), SenseButtonLocator.DEFAULT_TOLERANCE);
+	}
+	
+	static BufferedImage createScreenShot(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(new Color(38, 38, 38));
+		g.fillRect(0, 0, width, height);
+		g.setColor(RobotScanSoftware.SENSE_COLOR_DEFAULT);
+		int buttonSize = height / 12;
+		g.fillOval(width / 2 - buttonSize / 2, height * 2 / 3, buttonSize, buttonSize);
+		g.dispose();
+		return image;
+	}
+}
@@ -0,0 +1,93 @@
+package at.fhhgb.scanner;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/// Measures ScannerController.startMotors and stopMotors against a SimulatedBrick with the given round trip latency.
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MotorBenchmark {
+	
+	private static final int CONNECT_TIMEOUT = 5000;
+	
+	@Param({ "0", "12" })
+	public int latency;
+	
+	private SimulatedBrick brick = null;
+	private ScannerController controller = null;
+	private int speed = 0;
+	private long brickStartSkew = 0;
+	
+	@Setup(Level.Trial)
+	public void setup() throws InterruptedException {
+		brick = new SimulatedBrick();
+		brick.getLink().setLatency(latency);
+		brick.getLink().setJitter(latency / 3);
+		
+		ScannerConfiguration configuration = new ScannerConfiguration();
+		ScannerObservable scannerObservable = new ScannerObservable(configuration);
+		controller = new ScannerController(scannerObservable, brick.getFactory());
+		speed = configuration.getSpeedScanForward();
+		
+		controller.onConnectBrick();
+		long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+		while (!scannerObservable.isConnected()) {
+			if (System.currentTimeMillis() > deadline) {
+				throw new IllegalStateException("Simulated brick failed to connect");
+			}
+			Thread.sleep(10);
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		MotorGroup motors = controller.getMotors();
+		System.out.println();
+		System.out.println("Max skew on brick start: " + brickStartSkew / 1000 + " us");
+		System.out.println("Max skew start: " + motors.getMaxSkew(MotorGroup.Command.FORWARD) / 1000 + " us, stop: " + motors.getMaxSkew(MotorGroup.Command.STOP) / 1000 + " us");
+		System.out.println("Stop latency: " + controller.getStopLatency());
+		controller.close();
+	}
+	
+	/// Records the skew of the motors on the brick after each invocation.
+	@TearDown(Level.Invocation)
+	public void recordBrickSkew() {
+		long firstStart = Long.MAX_VALUE, lastStart = Long.MIN_VALUE;
+		for (SimulatedMotor motor : brick.getSimulatedMotors()) {
+			firstStart = Math.min(firstStart, motor.getLastStartTime());
+			lastStart = Math.max(lastStart, motor.getLastStartTime());
+		}
+		brickStartSkew = Math.max(brickStartSkew, lastStart - firstStart);
+	}
+	
+	@Benchmark
+	public void startMotors() {
+		controller.startMotors(speed, true);
+	}
+	
+	@Benchmark
+	public void stopMotors() {
+		controller.stopMotors();
+	}
+	
+	@Benchmark
+	public void startStopMotors() {
+		controller.startMotors(speed, true);
+		controller.stopMotors();
+	}
+	
+	/// Start followed by a stop through the emergency stop path of onStop.
+	@Benchmark
+	public boolean startEmergencyStop() throws InterruptedException {
+		controller.startMotors(speed, true);
+		EmergencyStop emergencyStop = controller.getEmergencyStop();
+		return emergencyStop.await(emergencyStop.request(), CONNECT_TIMEOUT);
+	}
+}
@@ -0,0 +1,55 @@
+package at.fhhgb.scanner;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/// Measures the notify path of ScannerObservable with the given number of listeners.
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ObservableBenchmark {
+	
+	@Param({ "1", "5", "50" })
+	public int listeners;
+	
+	private ScannerObservable scannerObservable = null;
+	private long time = 0;
+	
+	@Setup
+	public void setup(final Blackhole blackhole) {
+		scannerObservable = new ScannerObservable(new ScannerConfiguration());
+		for (int i=0; i<listeners; i++) {
+			scannerObservable.addListener(new ScannerListener() {
+				@Override
+				public void stateChanged(ScannerState state) {
+					blackhole.consume(state.getProgress());
+				}
+			});
+		}
+		scannerObservable.setScanStarted(0, Integer.MAX_VALUE);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		System.out.println();
+		for (ListenerSubscription subscription : scannerObservable.getSubscriptions().subList(0, 1)) {
+			System.out.println("Listener lag: " + subscription.getLag() + ", delivered " + subscription.getDelivered() + ", dropped " + subscription.getDropped());
+		}
+	}
+	
+	@Benchmark
+	public void setCurrentTime() {
+		scannerObservable.setCurrentTime(++time);
+	}
+	
+	@Benchmark
+	public void startScan() {
+		scannerObservable.setScanStarted(++time, Integer.MAX_VALUE);
+	}
+}
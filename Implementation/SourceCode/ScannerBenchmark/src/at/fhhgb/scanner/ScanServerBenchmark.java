@@ -0,0 +1,96 @@
+package at.fhhgb.scanner;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/// Load-tests the scan server protocol with BrickScanClient against SimulatedScanServer on the loopback interface.
+/**
+ * Each benchmark thread has its own connection, run with -t to put several
+ * clients on the server. scanCycle arms and runs a scan without countdown
+ * that lasts 50 ms and waits for its DONE event, so it measures the protocol
+ * overhead of a whole scan on top of the 50 ms. Run scanCycle with one
+ * thread only, the server runs one scan at a time.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ScanServerBenchmark {
+	
+	private static final int SPEED = 600;
+	private static final int DISTANCE = SPEED * 50;
+	
+	@State(Scope.Benchmark)
+	public static class Server {
+		
+		private SimulatedScanServer server = null;
+		
+		@Setup
+		public void setup() throws IOException {
+			server = new SimulatedScanServer();
+			server.start(0);
+		}
+		
+		@TearDown
+		public void tearDown() {
+			System.out.println();
+			System.out.println("Commands: " + server.getCommands() + ", scans: " + server.getScans());
+			server.close();
+		}
+	}
+	
+	private BrickScanClient client = null;
+	private final Object doneLock = new Object();
+	private int done = 0;
+	
+	@Setup
+	public void setup(Server server) {
+		client = new BrickScanClient("localhost", server.server.getPort());
+		client.setListener(new BrickScanClient.Listener() {
+			@Override
+			public void onScanEvent(ScanEvent event) {
+				if (event.getType() == ScanEvent.Type.DONE || event.getType() == ScanEvent.Type.STOPPED) {
+					synchronized (doneLock) {
+						done++;
+						doneLock.notifyAll();
+					}
+				}
+			}
+		});
+		if (client.getStatus() == null) {
+			throw new IllegalStateException("Scan server not reachable.");
+		}
+	}
+	
+	@TearDown
+	public void tearDown() {
+		System.out.println();
+		System.out.println("Round trip: " + client.getRoundTrip());
+		client.close();
+	}
+	
+	@Benchmark
+	public String status() {
+		return client.getStatus();
+	}
+	
+	@Benchmark
+	public void scanCycle() throws InterruptedException {
+		int expected;
+		synchronized (doneLock) {
+			expected = done + 1;
+		}
+		if (!client.arm(SPEED, DISTANCE) || !client.scan(0)) {
+			throw new IllegalStateException("Scan not started.");
+		}
+		synchronized (doneLock) {
+			while (done < expected) {
+				doneLock.wait();
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package at.fhhgb.scanner;
+
+import java.awt.EventQueue;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/// Measures the time from triggering a capture start and stop until SimulatedCaptureServer registers it, for each ScanSoftware adapter.
+/**
+ * The benchmark time is the whole trigger call, the trigger-to-capture
+ * latency is printed at the end of each trial. The robot adapter clicks the
+ * window of the capture server and needs a display, on Linux run it inside Xvfb.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScanSoftwareBenchmark {
+	
+	private static final Runnable NOOP = new Runnable() {
+		@Override
+		public void run() {
+		}
+	};
+	
+	@Param({ "socket", "robot" })
+	public String adapter;
+	
+	private SimulatedCaptureServer captureServer = null;
+	private ScanSoftware scanSoftware = null;
+	private LatencyRecorder startLatency = new LatencyRecorder();
+	private LatencyRecorder stopLatency = new LatencyRecorder();
+	
+	@Setup
+	public void setup() throws IOException, InvocationTargetException, InterruptedException {
+		captureServer = new SimulatedCaptureServer();
+		captureServer.start(0);
+		if ("robot".equals(adapter)) {
+			EventQueue.invokeAndWait(new Runnable() {
+				@Override
+				public void run() {
+					captureServer.showWindow();
+				}
+			});
+			//The capture server runs in this JVM, so the process to watch is this one
+			String command = ProcessHandle.current().info().command().orElse("java");
+			scanSoftware = new RobotScanSoftware(Paths.get(command).getFileName().toString());
+		}
+		else {
+			scanSoftware = new SocketScanSoftware("localhost", captureServer.getPort());
+		}
+		if (!scanSoftware.isRunning()) {
+			throw new IllegalStateException("Capture server not reachable.");
+		}
+	}
+	
+	@TearDown
+	public void tearDown() {
+		System.out.println();
+		System.out.println("Start latency: " + startLatency);
+		System.out.println("Stop latency: " + stopLatency);
+		scanSoftware.close();
+		captureServer.close();
+	}
+	
+	@Benchmark
+	public void startStopCapture() throws InvocationTargetException, InterruptedException {
+		long start = System.nanoTime();
+		if (scanSoftware.startCapture() && captureServer.isCapturing()) {
+			startLatency.record(captureServer.getLastStartTime() - start);
+		}
+		//Let the window show the new button colour before it is searched
+		EventQueue.invokeAndWait(NOOP);
+		
+		long stop = System.nanoTime();
+		if (scanSoftware.stopCapture() && !captureServer.isCapturing()) {
+			stopLatency.record(captureServer.getLastStopTime() - stop);
+		}
+		EventQueue.invokeAndWait(NOOP);
+	}
+}
@@ -0,0 +1,114 @@
+package at.fhhgb.scanner;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/// Measures the template search of TemplateButtonDetector at 1080p and 4K.
+/**
+ * By default the screenshot is synthetic with the button drawn at 100% display
+ * scaling for 1080p and at 200% for 4K. A recorded screenshot can be used with
+ * -p screenShot=path/to/screenshot.png and the template of the button with
+ * -Dscanner.template=path/to/template.png.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TemplateDetectorBenchmark {
+	
+	/// Size of the synthetic button at 100% display scaling.
+	private static final int BUTTON_SIZE = 48;
+	
+	@Param({ "1920x1080", "3840x2160" })
+	public String screenShot;
+	
+	private BufferedImage image = null;
+	private BufferedImage region = null;
+	private Rectangle regionBounds = null;
+	private TemplateButtonDetector detector = null;
+	
+	@Setup
+	public void setup() throws IOException {
+		BufferedImage template = null;
+		String templatePath = System.getProperty("scanner.template");
+		if (templatePath != null) {
+			template = ImageIO.read(new File(templatePath));
+		}
+		else {
+			template = createButton(BUTTON_SIZE);
+		}
+		
+		if (screenShot.matches("\\d+x\\d+")) {
+			String size[] = screenShot.split("x");
+			int width = Integer.parseInt(size[0]);
+			int height = Integer.parseInt(size[1]);
+			image = createScreenShot(width, height, Math.max(1, width / 1920));
+		}
+		else {
+			image = ImageIO.read(new File(screenShot));
+		}
+		
+		detector = new TemplateButtonDetector(template);
+		ButtonMatch match = detector.detect(image, 0, 0);
+		System.out.println();
+		System.out.println("Match: " + match);
+		if (match == null || match.getConfidence() < detector.getMinConfidence()) {
+			throw new IllegalStateException("Button not found in " + screenShot + ".");
+		}
+		
+		regionBounds = detector.getRegion(match).intersection(new Rectangle(image.getWidth(), image.getHeight()));
+		region = image.getSubimage(regionBounds.x, regionBounds.y, regionBounds.width, regionBounds.height);
+	}
+	
+	/// Full search over all display scales as done the first time.
+	@Benchmark
+	public ButtonMatch detect() {
+		return detector.detect(image, 0, 0);
+	}
+	
+	/// Search of the region around the last match as done once the button was found.
+	@Benchmark
+	public ButtonMatch detectInRegion() {
+		return detector.detectInRegion(region, regionBounds.x, regionBounds.y);
+	}
+	
+	static BufferedImage createScreenShot(int width, int height, int displayScale) {
+		BufferedImage image = ColorSearchBenchmark.createScreenShot(width, height);
+		Graphics2D g = image.createGraphics();
+		//Some controls around the button so the search is not trivial
+		g.setColor(new Color(70, 70, 70));
+		for (int i=0; i<8; i++) {
+			g.fillRect(width / 10 + i * width / 10, height / 12, width / 14, height / 30);
+		}
+		int size = BUTTON_SIZE * displayScale;
+		g.drawImage(createButton(size), width / 3 - size / 2, height * 2 / 3, null);
+		g.dispose();
+		return image;
+	}
+	
+	//Round button with a play symbol as in the Sense scan view
+	static BufferedImage createButton(int size) {
+		BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setColor(new Color(38, 38, 38));
+		g.fillRect(0, 0, size, size);
+		g.setColor(RobotScanSoftware.SENSE_COLOR_ACTIVE);
+		g.fillOval(0, 0, size, size);
+		g.setColor(Color.WHITE);
+		g.fillPolygon(new int[] { size * 3 / 8, size * 3 / 8, size * 3 / 4 }, new int[] { size / 4, size * 3 / 4, size / 2 }, 3);
+		g.dispose();
+		return image;
+	}
+}
@@ -0,0 +1,72 @@
+package at.fhhgb.scanner;
+
+import java.awt.EventQueue;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/// Measures the cost of ScannerWindow.stateChanged for a progress event during a scan. Requires a display.
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WindowBenchmark {
+	
+	private static final Runnable NOOP = new Runnable() {
+		@Override
+		public void run() {
+		}
+	};
+	
+	private ScannerObservable scannerObservable = null;
+	private ScannerWindow window = null;
+	private long time = 0;
+	
+	@Setup
+	public void setup() throws InvocationTargetException, InterruptedException {
+		//Render on every state change, the paced render timer would only add noise
+		ScannerConfiguration configuration = new ScannerConfiguration();
+		configuration.setDisplayRate(0);
+		scannerObservable = new ScannerObservable(configuration);
+		final ScannerController controller = new ScannerController(scannerObservable, new SimulatedBrick().getFactory());
+		EventQueue.invokeAndWait(new Runnable() {
+			@Override
+			public void run() {
+				window = new ScannerWindow(controller);
+				window.setVisible(true);
+			}
+		});
+		
+		//Detach the window so only the benchmarked calls reach it
+		scannerObservable.removeListener(window);
+		scannerObservable.setScanStarted(0, Integer.MAX_VALUE);
+	}
+	
+	@TearDown
+	public void tearDown() throws InvocationTargetException, InterruptedException {
+		EventQueue.invokeAndWait(new Runnable() {
+			@Override
+			public void run() {
+				window.dispose();
+			}
+		});
+	}
+	
+	/// Cost on the publishing thread.
+	@Benchmark
+	public void update() {
+		scannerObservable.setCurrentTime(++time);
+		window.stateChanged(scannerObservable.getState());
+	}
+	
+	/// Cost including the execution of the update on the event dispatch thread.
+	@Benchmark
+	public void updateAndRender() throws InvocationTargetException, InterruptedException {
+		scannerObservable.setCurrentTime(++time);
+		window.stateChanged(scannerObservable.getState());
+		EventQueue.invokeAndWait(NOOP);
+	}
+}
@@ -0,0 +1,460 @@
+package at.fhhgb.scannerev3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import lejos.hardware.Audio;
+import lejos.hardware.Brick;
+import lejos.hardware.BrickFinder;
+import lejos.hardware.Button;
+import lejos.hardware.DeviceException;
+import lejos.hardware.Power;
+import lejos.hardware.Sound;
+import lejos.hardware.motor.EV3LargeRegulatedMotor;
+import lejos.hardware.motor.EV3MediumRegulatedMotor;
+import lejos.hardware.port.PortException;
+import lejos.robotics.RegulatedMotor;
+
+/// Program on the brick executing motor, audio and power calls of the PC, replacing the leJOS RMI server for the scanner.
+/**
+ * Implements the binary protocol of BinaryBrick in the Scanner project on a
+ * single TCP connection:
+ * <pre>
+ * request: int length, int id, byte operation, byte handle, int arguments[]
+ * reply:   int length, int id, byte status, int value
+ *          or if the status is not OK: int length, int id, byte status, short length, UTF-8 message
+ * </pre>
+ * Calls of the same motor are executed in order, calls of different motors
+ * at the same time. Pings, motor creation, audio and power calls have a lane
+ * each. Motors are closed when the PC disconnects. Only one PC is
+ * served at a time, a new connection replaces the current one, so a PC
+ * reconnecting after a dropped link is not blocked by its own half-open
+ * connection. The escape button ends the program.
+ */
+public class BrickCommandServer {
+	
+	public static final int DEFAULT_PORT = 5579;
+	
+	//Operations, the handle is 0 for brick, audio and power operations
+	private static final byte PING = 1;
+	private static final byte CREATE_MOTOR = 2;
+	private static final byte FORWARD = 10;
+	private static final byte BACKWARD = 11;
+	private static final byte STOP = 12;
+	private static final byte FLT = 13;
+	private static final byte SET_SPEED = 14;
+	private static final byte GET_SPEED = 15;
+	private static final byte SET_ACCELERATION = 16;
+	private static final byte RESET_TACHO_COUNT = 17;
+	private static final byte GET_TACHO_COUNT = 18;
+	private static final byte IS_MOVING = 19;
+	private static final byte ROTATE = 20;
+	private static final byte ROTATE_TO = 21;
+	private static final byte GET_LIMIT_ANGLE = 22;
+	private static final byte WAIT_COMPLETE = 23;
+	private static final byte IS_STALLED = 24;
+	private static final byte SET_STALL_THRESHOLD = 25;
+	private static final byte GET_MAX_SPEED = 26;
+	private static final byte CLOSE = 27;
+	private static final byte SYSTEM_SOUND = 40;
+	private static final byte PLAY_TONE = 41;
+	private static final byte GET_VOLUME = 42;
+	private static final byte SET_VOLUME = 43;
+	private static final byte PLAY_SAMPLE_FILE = 44;
+	private static final byte PLAY_SAMPLE = 45;
+	private static final byte PLAY_NOTE = 46;
+	private static final byte GET_VOLTAGE_MILLIVOLT = 50;
+	private static final byte GET_BATTERY_CURRENT = 51;
+	private static final byte GET_MOTOR_CURRENT = 52;
+	
+	//Reply status
+	private static final byte OK = 0;
+	private static final byte ERROR_REMOTE = 1;
+	private static final byte ERROR_DEVICE = 2;
+	private static final byte ERROR_PORT = 3;
+	private static final byte ERROR_UNSUPPORTED = 4;
+	
+	//Largest request frame, a sample of 64 KB with frequency and volume like BinaryBrick.MAX_FRAME_LENGTH
+	private static final int MAX_FRAME_LENGTH = 6 + 4 * 3 + 65536;
+	
+	//Ping, motor creation, audio and power each have a lane, so a heartbeat or battery read never waits for a beep; motors share the rest by handle
+	private static final int LANE_PING = 0;
+	private static final int LANE_CREATE = 1;
+	private static final int LANE_AUDIO = 2;
+	private static final int LANE_POWER = 3;
+	private static final int MOTOR_LANES = 4;
+	private static final int LANES = 4 + MOTOR_LANES;
+	
+	private final Brick brick;
+	private final Audio audio;
+	private final Power power;
+	
+	//State of the current connection
+	private final ExecutorService lanes[] = new ExecutorService[LANES];
+	private final Map<Integer, RegulatedMotor> motors = new HashMap<>();
+	private int nextHandle = 1;
+	private DataOutputStream output = null;
+	private Socket socket = null;
+	
+	//Counts the connections, calls still queued from an old connection are skipped
+	private volatile int connection = 0;
+	
+	public BrickCommandServer(Brick brick) {
+		this.brick = brick;
+		this.audio = brick.getAudio();
+		this.power = brick.getPower();
+		for (int i=0; i<lanes.length; i++) {
+			lanes[i] = Executors.newSingleThreadExecutor();
+		}
+	}
+	
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		BrickCommandServer server = new BrickCommandServer(BrickFinder.getLocal());
+		final ServerSocket serverSocket = new ServerSocket(port);
+		
+		//End program if escape is pressed
+		Thread buttonThread = new Thread() {
+			public void run() {
+				Button.ESCAPE.waitForPressAndRelease();
+				try {
+					serverSocket.close();
+				} catch (IOException e) {
+				}
+			}
+		};
+		buttonThread.setDaemon(true);
+		buttonThread.start();
+		
+		System.out.println("Command server on port " + port);
+		Sound.beepSequenceUp();
+		server.serve(serverSocket);
+		System.exit(0);
+	}
+	
+	/// Serves one connection after another until the server socket is closed. A new connection closes the current one and its motors first.
+	public void serve(ServerSocket serverSocket) {
+		Socket current = null;
+		Thread currentThread = null;
+		while (!serverSocket.isClosed()) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException e) {
+				continue;
+			}
+			
+			//The motor ports must be free before the new connection creates its motors
+			if (current != null) {
+				try {
+					current.close();
+				} catch (IOException e) {
+				}
+				try {
+					currentThread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			
+			current = socket;
+			currentThread = new Thread("Connection") {
+				public void run() {
+					try {
+						handle(socket);
+					} catch (IOException e) {
+					}
+				}
+			};
+			currentThread.setDaemon(true);
+			currentThread.start();
+		}
+	}
+	
+	private void handle(Socket socket) throws IOException {
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			synchronized (this) {
+				this.socket = socket;
+				this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			}
+			while (true) {
+				int length = input.readInt();
+				if (length < 6 || (length - 6) % 4 != 0) {
+					throw new IOException("Invalid frame");
+				}
+				final int id = input.readInt();
+				final byte operation = input.readByte();
+				final int handle = input.readByte() & 0xff;
+				if (length > MAX_FRAME_LENGTH) {
+					//Rejected before allocating, the rest of the frame cannot be trusted, so the connection ends
+					writeReply(id, ERROR_UNSUPPORTED, 0, "Frame too long");
+					throw new IOException("Frame too long");
+				}
+				final int arguments[] = new int[(length - 6) / 4];
+				for (int i=0; i<arguments.length; i++) {
+					arguments[i] = input.readInt();
+				}
+				final int connection = this.connection;
+				lanes[lane(operation, handle)].execute(new Runnable() {
+					public void run() {
+						if (BrickCommandServer.this.connection == connection) {
+							reply(id, operation, handle, arguments);
+						}
+					}
+				});
+			}
+		} finally {
+			synchronized (this) {
+				connection++;
+				output = null;
+			}
+			socket.close();
+			closeMotors();
+		}
+	}
+	
+	//Returns the bytes packed after their length at the given index, like BinaryBrick.unpack()
+	private static byte[] unpack(int arguments[], int from) {
+		int length = arguments[from];
+		if (length < 0 || (length + 3) / 4 > arguments.length - from - 1) {
+			throw new IllegalArgumentException("Invalid length " + length);
+		}
+		byte data[] = new byte[length];
+		for (int i=0; i<length; i++) {
+			data[i] = (byte)(arguments[from + 1 + i / 4] >>> (24 - 8 * (i % 4)));
+		}
+		return data;
+	}
+	
+	private static int lane(byte operation, int handle) {
+		if (handle != 0) {
+			return LANES - MOTOR_LANES + (handle - 1) % MOTOR_LANES;
+		}
+		if (operation == CREATE_MOTOR) {
+			return LANE_CREATE;
+		}
+		if (operation >= SYSTEM_SOUND && operation < GET_VOLTAGE_MILLIVOLT) {
+			return LANE_AUDIO;
+		}
+		if (operation >= GET_VOLTAGE_MILLIVOLT) {
+			return LANE_POWER;
+		}
+		return LANE_PING;
+	}
+	
+	//Runs in the lane of the call
+	private void reply(int id, byte operation, int handle, int arguments[]) {
+		byte status = OK;
+		int value = 0;
+		String message = null;
+		try {
+			value = execute(operation, handle, arguments);
+		} catch (DeviceException e) {
+			status = ERROR_DEVICE;
+			message = String.valueOf(e.getMessage());
+		} catch (PortException e) {
+			status = ERROR_PORT;
+			message = String.valueOf(e.getMessage());
+		} catch (UnsupportedOperationException e) {
+			status = ERROR_UNSUPPORTED;
+			message = String.valueOf(e.getMessage());
+		} catch (RuntimeException e) {
+			status = ERROR_REMOTE;
+			message = String.valueOf(e.getMessage());
+		}
+		
+		writeReply(id, status, value, message);
+	}
+	
+	private void writeReply(int id, byte status, int value, String message) {
+		synchronized (this) {
+			if (output == null) {
+				return;
+			}
+			try {
+				if (status == OK) {
+					output.writeInt(9);
+					output.writeInt(id);
+					output.writeByte(status);
+					output.writeInt(value);
+				}
+				else {
+					byte text[] = message.getBytes(StandardCharsets.UTF_8);
+					int length = Math.min(text.length, Short.MAX_VALUE);
+					output.writeInt(7 + length);
+					output.writeInt(id);
+					output.writeByte(status);
+					output.writeShort(length);
+					output.write(text, 0, length);
+				}
+				output.flush();
+			} catch (IOException e) {
+				output = null;
+				try {
+					socket.close();
+				} catch (IOException e2) {
+				}
+			}
+		}
+	}
+	
+	private int execute(byte operation, int handle, int arguments[]) {
+		switch (operation) {
+		case PING:
+			return 0;
+		case CREATE_MOTOR:
+			return createMotor(String.valueOf((char)arguments[0]), (char)arguments[1]);
+		case SYSTEM_SOUND:
+			audio.systemSound(arguments[0]);
+			return 0;
+		case PLAY_TONE:
+			if (arguments[2] < 0) {
+				audio.playTone(arguments[0], arguments[1]);
+			}
+			else {
+				audio.playTone(arguments[0], arguments[1], arguments[2]);
+			}
+			return 0;
+		case GET_VOLUME:
+			return audio.getVolume();
+		case SET_VOLUME:
+			audio.setVolume(arguments[0]);
+			return 0;
+		case PLAY_SAMPLE_FILE:
+			File file = new File(new String(unpack(arguments, 1), StandardCharsets.UTF_8));
+			if (arguments[0] < 0) {
+				return audio.playSample(file);
+			}
+			return audio.playSample(file, arguments[0]);
+		case PLAY_SAMPLE:
+			byte data[] = unpack(arguments, 2);
+			return audio.playSample(data, 0, data.length, arguments[0], arguments[1]);
+		case PLAY_NOTE:
+			int instrument[] = new int[arguments.length - 2];
+			System.arraycopy(arguments, 2, instrument, 0, instrument.length);
+			audio.playNote(instrument, arguments[0], arguments[1]);
+			return 0;
+		case GET_VOLTAGE_MILLIVOLT:
+			return power.getVoltageMilliVolt();
+		case GET_BATTERY_CURRENT:
+			return Float.floatToIntBits(power.getBatteryCurrent());
+		case GET_MOTOR_CURRENT:
+			return Float.floatToIntBits(power.getMotorCurrent());
+		}
+		
+		RegulatedMotor motor;
+		synchronized (motors) {
+			motor = motors.get(handle);
+		}
+		if (motor == null) {
+			throw new IllegalArgumentException("Invalid handle " + handle);
+		}
+		switch (operation) {
+		case FORWARD:
+			motor.forward();
+			return 0;
+		case BACKWARD:
+			motor.backward();
+			return 0;
+		case STOP:
+			motor.stop(arguments[0] != 0);
+			return 0;
+		case FLT:
+			motor.flt(arguments[0] != 0);
+			return 0;
+		case SET_SPEED:
+			motor.setSpeed(arguments[0]);
+			return 0;
+		case GET_SPEED:
+			return motor.getSpeed();
+		case SET_ACCELERATION:
+			motor.setAcceleration(arguments[0]);
+			return 0;
+		case RESET_TACHO_COUNT:
+			motor.resetTachoCount();
+			return 0;
+		case GET_TACHO_COUNT:
+			return motor.getTachoCount();
+		case IS_MOVING:
+			return motor.isMoving() ? 1 : 0;
+		case ROTATE:
+			motor.rotate(arguments[0], arguments[1] != 0);
+			return 0;
+		case ROTATE_TO:
+			motor.rotateTo(arguments[0], arguments[1] != 0);
+			return 0;
+		case GET_LIMIT_ANGLE:
+			return motor.getLimitAngle();
+		case WAIT_COMPLETE:
+			motor.waitComplete();
+			return 0;
+		case IS_STALLED:
+			return motor.isStalled() ? 1 : 0;
+		case SET_STALL_THRESHOLD:
+			motor.setStallThreshold(arguments[0], arguments[1]);
+			return 0;
+		case GET_MAX_SPEED:
+			return Float.floatToIntBits(motor.getMaxSpeed());
+		case CLOSE:
+			synchronized (motors) {
+				motors.remove(handle);
+			}
+			motor.close();
+			return 0;
+		}
+		throw new UnsupportedOperationException("Unknown operation " + operation);
+	}
+	
+	private int createMotor(String port, char type) {
+		int connection = this.connection;
+		RegulatedMotor motor;
+		if (type == 'M') {
+			motor = new EV3MediumRegulatedMotor(brick.getPort(port));
+		}
+		else {
+			motor = new EV3LargeRegulatedMotor(brick.getPort(port));
+		}
+		synchronized (motors) {
+			//The connection was replaced while the motor was created, its motors are already closed
+			if (this.connection != connection) {
+				motor.close();
+				throw new IllegalStateException("Connection closed");
+			}
+			if (nextHandle > 255) {
+				motor.close();
+				throw new UnsupportedOperationException("Too many motors");
+			}
+			motors.put(nextHandle, motor);
+			return nextHandle++;
+		}
+	}
+	
+	private void closeMotors() {
+		List<RegulatedMotor> open;
+		synchronized (motors) {
+			open = new ArrayList<>(motors.values());
+			motors.clear();
+			nextHandle = 1;
+		}
+		for (RegulatedMotor motor : open) {
+			try {
+				motor.close();
+			} catch (RuntimeException e) {
+			}
+		}
+	}
+}
@@ -0,0 +1,327 @@
+package at.fhhgb.scannerev3;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import lejos.hardware.BrickFinder;
+import lejos.hardware.Button;
+import lejos.hardware.Sound;
+import lejos.hardware.motor.EV3LargeRegulatedMotor;
+import lejos.robotics.RegulatedMotor;
+
+/// Program that stays on the brick and runs scans on command of the PC, so a scan takes a few commands instead of one remote call per motor operation.
+/**
+ * The PC connects via TCP and sends one command per line, which is answered
+ * with a single line:
+ * <pre>
+ * ARM speed distance  -> OK | ERROR message     set speed and target, reset tacho counts
+ * SCAN countdown      -> OK | ERROR message     beep every second, then scan, timing runs on the brick
+ * STOP                -> OK                     stop the countdown or the motors
+ * STATUS              -> STATUS state tacho elapsed duration
+ * </pre>
+ * While a scan runs the brick sends events between the replies:
+ * <pre>
+ * EVENT COUNTDOWN seconds
+ * EVENT STARTED duration
+ * EVENT PROGRESS tacho elapsed duration
+ * EVENT DONE tacho elapsed
+ * EVENT STOPPED tacho elapsed
+ * </pre>
+ * Times are in ms, distance and speed in the units of ScannerConfiguration.
+ * Only one PC is served at a time. The escape button ends the program.
+ */
+public class ScanServer {
+	
+	public static final int DEFAULT_PORT = 5578;
+	
+	public enum State {
+		IDLE, ARMED, COUNTDOWN, SCANNING
+	}
+	
+	//Interval of progress events and of checking the stop request in ms
+	private static final int PROGRESS_INTERVAL = 100;
+	private static final int POLL_INTERVAL = 10;
+	
+	private final RegulatedMotor motors[];
+	
+	//Guarded by this
+	private State state = State.IDLE;
+	private int duration = 0;
+	private long startTime = 0;
+	private Thread scanThread = null;
+	
+	private volatile boolean stopRequested = false;
+	
+	//Connection receiving the replies and events, guarded by outputLock
+	private final Object outputLock = new Object();
+	private OutputStream output = null;
+	
+	public ScanServer(RegulatedMotor motors[]) {
+		this.motors = motors;
+		if (motors.length > 1) {
+			RegulatedMotor others[] = new RegulatedMotor[motors.length - 1];
+			System.arraycopy(motors, 1, others, 0, others.length);
+			motors[0].synchronizeWith(others);
+		}
+	}
+	
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		
+		//Setup motors
+		ScannerConfiguration configuration = new ScannerConfiguration();
+		String ports[] = configuration.getPortsMotors();
+		RegulatedMotor motors[] = new RegulatedMotor[ports.length];
+		for (int i=0; i<ports.length; i++) {
+			motors[i] = new EV3LargeRegulatedMotor(BrickFinder.getLocal().getPort(ports[i]));
+		}
+		
+		final ScanServer server = new ScanServer(motors);
+		final ServerSocket serverSocket = new ServerSocket(port);
+		
+		//End program if escape is pressed
+		Thread buttonThread = new Thread() {
+			public void run() {
+				Button.ESCAPE.waitForPressAndRelease();
+				server.stop();
+				try {
+					serverSocket.close();
+				} catch (IOException e) {
+				}
+			}
+		};
+		buttonThread.setDaemon(true);
+		buttonThread.start();
+		
+		System.out.println("Scan server on port " + port);
+		Sound.beepSequenceUp();
+		server.serve(serverSocket);
+		
+		for (int i=0; i<motors.length; i++) {
+			motors[i].close();
+		}
+	}
+	
+	/// Serves one connection after another until the server socket is closed.
+	public void serve(ServerSocket serverSocket) {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				handle(socket);
+			} catch (IOException e) {
+			}
+		}
+	}
+	
+	public synchronized State getState() {
+		return state;
+	}
+	
+	/// Sets the speed of the motors and the scan distance. Not possible while a scan runs.
+	public synchronized boolean arm(int speed, int distance) {
+		if (state == State.COUNTDOWN || state == State.SCANNING || speed <= 0 || distance <= 0) {
+			return false;
+		}
+		
+		//Clamp speed to the valid range
+		ScannerConfiguration configuration = new ScannerConfiguration();
+		configuration.setSpeedScanForward(speed);
+		speed = configuration.getSpeedScanForward();
+		
+		for (int i=0; i<motors.length; i++) {
+			motors[i].setSpeed(speed);
+			motors[i].resetTachoCount();
+		}
+		duration = distance / speed;
+		state = State.ARMED;
+		return true;
+	}
+	
+	/// Starts the countdown and the scan in the background. The server has to be armed.
+	public synchronized boolean scan(final int countdown) {
+		if (state != State.ARMED) {
+			return false;
+		}
+		stopRequested = false;
+		state = State.COUNTDOWN;
+		scanThread = new Thread("Scan") {
+			public void run() {
+				runScan(countdown);
+			}
+		};
+		scanThread.setDaemon(true);
+		scanThread.start();
+		return true;
+	}
+	
+	/// Stops a running countdown or scan, or the motors if no scan is running.
+	public void stop() {
+		stopRequested = true;
+		Thread scanThread;
+		synchronized (this) {
+			scanThread = this.scanThread;
+		}
+		if (scanThread == null) {
+			stopMotors();
+		}
+	}
+	
+	private void handle(Socket socket) throws IOException {
+		try {
+			socket.setTcpNoDelay(true);
+			BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			synchronized (outputLock) {
+				output = socket.getOutputStream();
+			}
+			String line;
+			while ((line = input.readLine()) != null) {
+				send(execute(line.trim().split(" +")));
+			}
+		} finally {
+			synchronized (outputLock) {
+				output = null;
+			}
+			socket.close();
+		}
+	}
+	
+	private String execute(String command[]) {
+		try {
+			if ("ARM".equals(command[0]) && command.length == 3) {
+				return arm(Integer.parseInt(command[1]), Integer.parseInt(command[2])) ? "OK" : "ERROR Cannot arm while scanning.";
+			}
+			else if ("SCAN".equals(command[0]) && command.length == 2) {
+				return scan(Integer.parseInt(command[1])) ? "OK" : "ERROR Not armed.";
+			}
+			else if ("STOP".equals(command[0])) {
+				stop();
+				return "OK";
+			}
+			else if ("STATUS".equals(command[0])) {
+				synchronized (this) {
+					return "STATUS " + state + " " + motors[0].getTachoCount() + " " + getElapsed() + " " + duration;
+				}
+			}
+		} catch (NumberFormatException e) {
+			return "ERROR Invalid number.";
+		}
+		return "ERROR Unknown command " + command[0] + ".";
+	}
+	
+	//Runs in the scan thread
+	private void runScan(int countdown) {
+		long countdownStart = System.nanoTime();
+		int seconds = (countdown + 999) / 1000;
+		
+		//Beep every second, the last beep one second before the motors start
+		boolean stopped = false;
+		for (int i=0; i<seconds && !stopped; i++) {
+			stopped = !sleepUntil(countdownStart + TimeUnit.MILLISECONDS.toNanos(countdown - (seconds - i) * 1000L));
+			if (!stopped) {
+				send("EVENT COUNTDOWN " + (seconds - i));
+				Sound.systemSound(true, 0);
+			}
+		}
+		stopped = stopped || !sleepUntil(countdownStart + TimeUnit.MILLISECONDS.toNanos(countdown));
+		
+		if (!stopped) {
+			//Start motors
+			startMotors();
+			int duration;
+			synchronized (this) {
+				startTime = System.nanoTime();
+				state = State.SCANNING;
+				duration = this.duration;
+			}
+			send("EVENT STARTED " + duration);
+			
+			//Scan until the duration is reached or a stop is requested
+			long end = startTime + TimeUnit.MILLISECONDS.toNanos(duration);
+			long nextProgress = startTime;
+			while (true) {
+				long now = System.nanoTime();
+				if (now - end >= 0) {
+					break;
+				}
+				if (now - nextProgress >= 0) {
+					send("EVENT PROGRESS " + motors[0].getTachoCount() + " " + getElapsed() + " " + duration);
+					nextProgress += TimeUnit.MILLISECONDS.toNanos(PROGRESS_INTERVAL);
+				}
+				if (!sleepUntil(Math.min(end, nextProgress))) {
+					stopped = true;
+					break;
+				}
+			}
+		}
+		
+		stopMotors();
+		long elapsed;
+		synchronized (this) {
+			elapsed = getElapsed();
+			state = State.IDLE;
+			startTime = 0;
+			scanThread = null;
+		}
+		send((stopped ? "EVENT STOPPED " : "EVENT DONE ") + motors[0].getTachoCount() + " " + elapsed);
+		
+		//Beep twice to indicate that the scanning process ended
+		Sound.systemSound(true, 1);
+	}
+	
+	//Returns false if a stop was requested before the time was reached
+	private boolean sleepUntil(long time) {
+		while (!stopRequested) {
+			long remaining = time - System.nanoTime();
+			if (remaining <= 0) {
+				return true;
+			}
+			try {
+				Thread.sleep(Math.max(1, Math.min(POLL_INTERVAL, TimeUnit.NANOSECONDS.toMillis(remaining))));
+			} catch (InterruptedException e) {
+				return false;
+			}
+		}
+		return false;
+	}
+	
+	//Guarded by this
+	private long getElapsed() {
+		return startTime != 0 ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) : 0;
+	}
+	
+	private void startMotors() {
+		motors[0].startSynchronization();
+		for (int i=0; i<motors.length; i++) {
+			motors[i].forward();
+		}
+		motors[0].endSynchronization();
+	}
+	
+	private void stopMotors() {
+		motors[0].startSynchronization();
+		for (int i=0; i<motors.length; i++) {
+			motors[i].stop(true);
+		}
+		motors[0].endSynchronization();
+	}
+	
+	//Sends a line to the connected PC, lost if no PC is connected
+	private void send(String line) {
+		synchronized (outputLock) {
+			if (output == null) {
+				return;
+			}
+			try {
+				output.write((line + "\n").getBytes(StandardCharsets.US_ASCII));
+				output.flush();
+			} catch (IOException e) {
+				output = null;
+			}
+		}
+	}
+}
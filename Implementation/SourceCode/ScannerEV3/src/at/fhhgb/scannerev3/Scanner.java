@@ -1,18 +1,63 @@
 package at.fhhgb.scannerev3;
 
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import lejos.hardware.Button;
+import lejos.hardware.Key;
+import lejos.hardware.KeyListener;
 import lejos.hardware.Sound;
 import lejos.hardware.motor.EV3LargeRegulatedMotor;
 import lejos.hardware.port.MotorPort;
 import lejos.robotics.RegulatedMotor;
-import lejos.utility.Delay;
 
 /// Main program that is saved on the brick running the default scan procedure.
 /**
+ * Every step has a deadline relative to the start of the countdown, measured
+ * with System.nanoTime(), so the beeps and the motor start do not drift. A
+ * button press is delivered by a key listener and wakes the waiting program
+ * at once. Sounds are played by a separate thread, so a beep never delays the
+ * motors. Nothing is allocated between the start of the countdown and the
+ * stop of the motors. After the run the error of each deadline is shown.
+ * During the scan a TachoRecorder samples the motors, after the scan the
+ * samples are saved and offered to the PC in one compressed upload.
  * @author Fuchs, Schmutz
  */
 public class Scanner {
-
+	
+	//Set the duration of countdown in ms before motors start
+	private static final int COUNTDOWN = 3000;
+	private static final int BEEP_INTERVAL = 1000;
+	
+	//Wake up this long before a deadline and yield for the rest, parking alone overshoots by a scheduler tick
+	private static final long SPIN_BEFORE_DEADLINE = 2000000;
+	
+	//Sample the motors every SAMPLE_INTERVAL ms and keep recording for COAST_RECORDING ms after the stop
+	private static final int SAMPLE_INTERVAL = 5;
+	private static final int COAST_RECORDING = 500;
+	private static final String TELEMETRY_FILE = "scan-telemetry.gz";
+	private static final int UPLOAD_TIMEOUT = 30000;
+	
+	private static final int SOUND_BEEP = 0;
+	private static final int SOUND_TWO_BEEPS = 1;
+	
+	//Deadlines and the times they were met, one per beep, motor start and scan end
+	private static final int BEEPS = COUNTDOWN / BEEP_INTERVAL;
+	private static final int EVENT_START = BEEPS;
+	private static final int EVENT_END = BEEPS + 1;
+	private static final long planned[] = new long[BEEPS + 2];
+	private static final long actual[] = new long[BEEPS + 2];
+	
+	private static volatile boolean stopRequested = false;
+	private static volatile long stopPressTime = 0;
+	
+	//Written by the scan thread only, the sound thread plays the last requested sound
+	private static volatile int pendingSound = SOUND_BEEP;
+	private static volatile int soundRequests = 0;
+	private static volatile int soundsPlayed = 0;
+	private static Thread scanThread = null;
+	private static Thread soundThread = null;
+	
 	public static void main(String[] args) {
 		//Create default configuration
 		ScannerConfiguration configuration = new ScannerConfiguration();
@@ -28,59 +73,187 @@ public class Scanner {
 		//Get motor speed
 		int speed = configuration.getSpeedScanForward();
 		
-		//Set the duration of countdown in ms before motors start
-		int countdown = 3000;
-		
-		//Set the interval time for checking button presses in ms
-		int delay = 20;
-		
-		//Calculate the required iterations for the countdown loop
-		int iterations = countdown / delay;
-		
 		//Calculate the scan duration
 		int scanDuration = configuration.getScanDistanceWithOffset() / speed;
 		
 		//Configure the speed of the motors
 		for (int i=0; i<motors.length; i++) {
 			motors[i].setSpeed(speed);
+			motors[i].resetTachoCount();
 		}
 		
-		//Countdown before scanning and beep every second; end program if any button is pressed
-		for (int i=0; i<iterations; i++) {
-			if (Button.readButtons() != 0) {
-				return;
+		//Allocate all samples of the scan up front
+		TachoRecorder recorder = new TachoRecorder(motors, SAMPLE_INTERVAL, scanDuration + COAST_RECORDING);
+		
+		//End the countdown or the scan if any button is pressed
+		scanThread = Thread.currentThread();
+		KeyListener listener = new KeyListener() {
+			public void keyPressed(Key key) {
+				if (!stopRequested) {
+					stopPressTime = System.nanoTime();
+					stopRequested = true;
+					LockSupport.unpark(scanThread);
+				}
 			}
-			if (i * delay % 1000 == 0) {
-				Sound.beep();
+			
+			public void keyReleased(Key key) {
 			}
-			Delay.msDelay(delay);
+		};
+		Key keys[] = new Key[] { Button.ENTER, Button.ESCAPE, Button.LEFT, Button.RIGHT, Button.UP, Button.DOWN };
+		for (int i=0; i<keys.length; i++) {
+			keys[i].addKeyListener(listener);
+		}
+		startSoundThread();
+		
+		//Plan all deadlines before the countdown starts
+		long countdownStart = System.nanoTime();
+		for (int i=0; i<BEEPS; i++) {
+			planned[i] = countdownStart + TimeUnit.MILLISECONDS.toNanos(i * BEEP_INTERVAL);
+		}
+		planned[EVENT_START] = countdownStart + TimeUnit.MILLISECONDS.toNanos(COUNTDOWN);
+		planned[EVENT_END] = planned[EVENT_START] + TimeUnit.MILLISECONDS.toNanos(scanDuration);
+		recorder.start(planned[EVENT_START]);
+		
+		//Countdown before scanning and beep every second
+		int beeps = 0;
+		while (beeps < BEEPS && waitUntil(planned[beeps])) {
+			actual[beeps] = System.nanoTime();
+			playSound(SOUND_BEEP);
+			beeps++;
+		}
+		if (beeps < BEEPS || !waitUntil(planned[EVENT_START])) {
+			//Aborted before the motors started, there is nothing to stop
+			actual[EVENT_END] = System.nanoTime();
+			recorder.stop();
+			printTimingReport(beeps, false);
+			awaitSound();
+			return;
 		}
 		
 		//Start motors
+		motor1.startSynchronization();
 		for (int i=0; i<motors.length; i++) {
 			motors[i].forward();
 		}
+		motor1.endSynchronization();
+		actual[EVENT_START] = System.nanoTime();
 		
-		//Save start time
-		long startTime = System.currentTimeMillis();
-		
-		//Scan until duration is reached or any button is pressed
-		while (true) {
-			if (Button.readButtons() != 0 || (int)(System.currentTimeMillis() - startTime) > scanDuration) {
-				break;
-			}
-			Delay.msDelay(delay);
-		}
+		//Scan until the duration is reached or any button is pressed
+		boolean completed = waitUntil(planned[EVENT_END]);
 		
 		//Stop motors
+		motor1.startSynchronization();
 		for (int i=0; i<motors.length; i++) {
 			motors[i].stop(true);
 		}
-		
-		//End motor synchronization
 		motor1.endSynchronization();
+		actual[EVENT_END] = System.nanoTime();
 		
 		//Beep twice to indicate that the scanning process ended
-		Sound.twoBeeps();
+		playSound(SOUND_TWO_BEEPS);
+		
+		printTimingReport(EVENT_END, completed);
+		
+		//Record the motors coasting to a halt, then hand the samples over
+		LockSupport.parkNanos(actual[EVENT_END] + TimeUnit.MILLISECONDS.toNanos(COAST_RECORDING) - System.nanoTime());
+		recorder.stop();
+		uploadTelemetry(recorder);
+		
+		//Let the sound finish before the program ends
+		awaitSound();
+	}
+	
+	//Saves the samples on the brick and waits for the PC to fetch them once
+	private static void uploadTelemetry(TachoRecorder recorder) {
+		System.out.println("samples: " + recorder.getSamples() + (recorder.getOverflow() > 0 ? ", lost " + recorder.getOverflow() : ""));
+		try {
+			recorder.save(TELEMETRY_FILE);
+		} catch (IOException e) {
+			System.out.println("Failed to save telemetry.");
+		}
+		System.out.println("Upload on port " + TachoRecorder.DEFAULT_PORT);
+		try {
+			if (!recorder.upload(TachoRecorder.DEFAULT_PORT, UPLOAD_TIMEOUT)) {
+				System.out.println("No upload, see " + TELEMETRY_FILE);
+			}
+		} catch (IOException e) {
+			System.out.println("Failed to upload telemetry.");
+		}
+	}
+	
+	//Returns false if a button was pressed before the deadline
+	private static boolean waitUntil(long deadline) {
+		while (!stopRequested) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return true;
+			}
+			if (remaining > SPIN_BEFORE_DEADLINE) {
+				LockSupport.parkNanos(remaining - SPIN_BEFORE_DEADLINE);
+			}
+			else {
+				Thread.yield();
+			}
+		}
+		return false;
+	}
+	
+	private static void startSoundThread() {
+		soundThread = new Thread("Sound") {
+			public void run() {
+				while (true) {
+					int requests = soundRequests;
+					if (requests == soundsPlayed) {
+						LockSupport.park();
+						continue;
+					}
+					if (pendingSound == SOUND_TWO_BEEPS) {
+						Sound.twoBeeps();
+					}
+					else {
+						Sound.beep();
+					}
+					soundsPlayed = requests;
+				}
+			}
+		};
+		soundThread.setDaemon(true);
+		soundThread.setPriority(Thread.NORM_PRIORITY - 1);
+		soundThread.start();
+	}
+	
+	//Hands the sound to the sound thread, a sound still playing is not interrupted and the new one replaces a waiting one
+	private static void playSound(int sound) {
+		pendingSound = sound;
+		soundRequests++;
+		LockSupport.unpark(soundThread);
+	}
+	
+	private static void awaitSound() {
+		while (soundsPlayed != soundRequests) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+		}
+	}
+	
+	//Shows how late each deadline was met in ms, allocates only after the motors stopped. Only the first reached beeps and start events are shown, the end only if completed.
+	private static void printTimingReport(int reached, boolean completed) {
+		long maxError = 0;
+		for (int i=0; i<actual.length; i++) {
+			long error = actual[i] - planned[i];
+			if (i == EVENT_END ? !completed : i >= reached) {
+				continue;
+			}
+			maxError = Math.max(maxError, Math.abs(error));
+			String name = i == EVENT_START ? "start" : i == EVENT_END ? "end" : "beep " + (BEEPS - i);
+			System.out.println(name + ": " + formatMillis(error) + " ms");
+		}
+		System.out.println("max error: " + formatMillis(maxError) + " ms");
+		if (!completed) {
+			System.out.println("stop: " + formatMillis(actual[EVENT_END] - stopPressTime) + " ms");
+		}
+	}
+	
+	private static String formatMillis(long nanos) {
+		return String.format("%.2f", nanos / 1e6);
 	}
-}
\ No newline at end of file
+}
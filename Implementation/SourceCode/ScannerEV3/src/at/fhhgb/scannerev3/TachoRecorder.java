@@ -0,0 +1,202 @@
+package at.fhhgb.scannerev3;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+import lejos.robotics.RegulatedMotor;
+
+/// Samples tacho count and rotation speed of the motors at a fixed rate during a scan and uploads the samples after it.
+/**
+ * All arrays are allocated up front, sampling only writes ints. When the
+ * arrays are full, sampling stops and the overflow is counted. The upload is
+ * a single GZIP stream of big-endian values, column by column and with
+ * deltas for time and tacho counts, so steady movement compresses well:
+ * <pre>
+ * int MAGIC, byte VERSION, int motors, int samples, int interval (us), int overflow
+ * int time delta (us) per sample
+ * per motor: int tacho delta per sample
+ * per motor: int rotation speed (degrees per second) per sample
+ * </pre>
+ * The first delta is relative to 0, i.e. the start of the recording.
+ * ScanTelemetry of the Scanner project reads this format.
+ */
+public class TachoRecorder {
+	
+	public static final int DEFAULT_PORT = 5580;
+	public static final int MAGIC = 0x54414348;
+	public static final int VERSION = 1;
+	
+	//Wake up this long before a sample is due and yield for the rest
+	private static final long SPIN_BEFORE_SAMPLE = 1000000;
+	
+	private final RegulatedMotor motors[];
+	private final int interval;
+	private final int capacity;
+	private final int times[];
+	private final int tachos[][];
+	private final int speeds[][];
+	
+	private volatile int samples = 0;
+	private volatile int overflow = 0;
+	private volatile boolean recording = false;
+	private Thread thread = null;
+	
+	/// Creates a recorder sampling every interval ms for at most the given duration in ms.
+	public TachoRecorder(RegulatedMotor motors[], int interval, int duration) {
+		this.motors = motors;
+		this.interval = Math.max(1, interval);
+		this.capacity = duration / this.interval + 1;
+		this.times = new int[capacity];
+		this.tachos = new int[motors.length][capacity];
+		this.speeds = new int[motors.length][capacity];
+	}
+	
+	/// Starts sampling on a thread of its own, the first sample is taken at the given System.nanoTime() and sample times are relative to it.
+	/**
+	 * The thread is created here, so calling this ahead of the start time
+	 * keeps the allocation out of the time critical part.
+	 */
+	public void start(final long startTime) {
+		samples = 0;
+		overflow = 0;
+		recording = true;
+		thread = new Thread("Tacho recorder") {
+			public void run() {
+				record(startTime);
+			}
+		};
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+	}
+	
+	/// Stops sampling and waits for the sampling thread to end.
+	public void stop() {
+		recording = false;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			thread = null;
+		}
+	}
+	
+	public int getSamples() {
+		return samples;
+	}
+	
+	/// Returns the number of samples that did not fit into the arrays.
+	public int getOverflow() {
+		return overflow;
+	}
+	
+	/// Writes the samples compressed to the stream, see the class description for the format.
+	public void write(OutputStream stream) throws IOException {
+		GZIPOutputStream compressed = new GZIPOutputStream(stream, 8192);
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(compressed, 8192));
+		int n = samples;
+		output.writeInt(MAGIC);
+		output.writeByte(VERSION);
+		output.writeInt(motors.length);
+		output.writeInt(n);
+		output.writeInt(interval * 1000);
+		output.writeInt(overflow);
+		int previous = 0;
+		for (int i=0; i<n; i++) {
+			output.writeInt(times[i] - previous);
+			previous = times[i];
+		}
+		for (int m=0; m<motors.length; m++) {
+			previous = 0;
+			for (int i=0; i<n; i++) {
+				output.writeInt(tachos[m][i] - previous);
+				previous = tachos[m][i];
+			}
+		}
+		for (int m=0; m<motors.length; m++) {
+			for (int i=0; i<n; i++) {
+				output.writeInt(speeds[m][i]);
+			}
+		}
+		output.flush();
+		compressed.finish();
+	}
+	
+	/// Saves the samples compressed to the given file.
+	public void save(String file) throws IOException {
+		FileOutputStream stream = new FileOutputStream(file);
+		try {
+			write(stream);
+		} finally {
+			stream.close();
+		}
+	}
+	
+	/// Waits up to timeout ms for the PC to connect on the given port and sends the samples. Returns false if no PC connected.
+	public boolean upload(int port, int timeout) throws IOException {
+		ServerSocket serverSocket = new ServerSocket(port);
+		try {
+			serverSocket.setSoTimeout(timeout);
+			Socket socket = serverSocket.accept();
+			try {
+				write(socket.getOutputStream());
+				socket.shutdownOutput();
+			} finally {
+				socket.close();
+			}
+			return true;
+		} catch (SocketTimeoutException e) {
+			return false;
+		} finally {
+			serverSocket.close();
+		}
+	}
+	
+	//Runs in the sampling thread, writes only into the preallocated arrays
+	private void record(long start) {
+		long next = start;
+		long step = TimeUnit.MILLISECONDS.toNanos(interval);
+		while (recording) {
+			long now = System.nanoTime();
+			long remaining = next - now;
+			if (remaining > SPIN_BEFORE_SAMPLE) {
+				LockSupport.parkNanos(remaining - SPIN_BEFORE_SAMPLE);
+				continue;
+			}
+			if (remaining > 0) {
+				Thread.yield();
+				continue;
+			}
+			
+			int i = samples;
+			if (i < capacity) {
+				times[i] = (int)((now - start) / 1000);
+				for (int m=0; m<motors.length; m++) {
+					tachos[m][i] = motors[m].getTachoCount();
+					speeds[m][i] = motors[m].getRotationSpeed();
+				}
+				samples = i + 1;
+			}
+			else {
+				overflow++;
+			}
+			
+			//Skip samples missed while the thread was not scheduled instead of taking them in a burst
+			next += step;
+			if (now - next > step) {
+				next = now + step;
+			}
+		}
+	}
+}